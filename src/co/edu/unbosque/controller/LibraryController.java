@@ -1,5 +1,6 @@
 package co.edu.unbosque.controller;
 
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
@@ -14,7 +15,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import co.edu.unbosque.controller.facade.Library;
+import co.edu.unbosque.model.dto.BatchItemResultDTO;
 import co.edu.unbosque.model.dto.BookDTO;
+import co.edu.unbosque.model.dto.ImportResultDTO;
 import co.edu.unbosque.model.dto.LoanDTO;
 import co.edu.unbosque.model.dto.UserDTO;
 import co.edu.unbosque.utils.PDFReportGenerator;
@@ -36,32 +39,39 @@ public class LibraryController {
 
         while (!exit) {
             int option = view.showMainMenu();
-            
-            switch (option) {
-                case 1:
-                    handleUserManagement();
-                    break;
-                case 2:
-                    handleBookManagement();
-                    break;
-                case 3:
-                    handleLoanManagement();
-                    break;
-                case 4:
-                    handleSearch();
-                    break;
-                case 5:
-                    handleViewActiveLoans();
-                    break;
-                case 6:
-                    handleReports();
-                    break;
-                case 0:
-                    exit = true;
-                    view.showGoodbye();
-                    break;
-                default:
-                    view.showError("Invalid option. Please try again.");
+
+            try {
+                switch (option) {
+                    case 1:
+                        handleUserManagement();
+                        break;
+                    case 2:
+                        handleBookManagement();
+                        break;
+                    case 3:
+                        handleLoanManagement();
+                        break;
+                    case 4:
+                        handleSearch();
+                        break;
+                    case 5:
+                        handleViewActiveLoans();
+                        break;
+                    case 6:
+                        handleReports();
+                        break;
+                    case 0:
+                        exit = true;
+                        if (!library.close()) {
+                            view.showError("Some changes could not be saved.");
+                        }
+                        view.showGoodbye();
+                        break;
+                    default:
+                        view.showError("Invalid option. Please try again.");
+                }
+            } catch (UncheckedIOException e) {
+                view.showError("The change was not saved: " + e.getMessage());
             }
         }
         
@@ -93,6 +103,9 @@ public class LibraryController {
                 case 6:
                     filterUsersByAddress();
                     break;
+                case 7:
+                    importUsers();
+                    break;
                 case 0:
                     backToMainMenu = true;
                     break;
@@ -304,6 +317,15 @@ public class LibraryController {
         }
     }
 
+    private void importUsers() {
+        view.showMessage("\n--- Import Users from CSV ---");
+        view.showMessage("Columns: id,name,email,phone,address,birthDate(yyyy-MM-dd)[,active]");
+
+        String path = view.readString("Enter CSV file path: ").trim();
+        ImportResultDTO result = library.importUsers(path, rows -> view.showMessage("  " + rows + " rows read..."));
+        view.showImportResult(result);
+    }
+
     private void handleBookManagement() {
         boolean backToMainMenu = false;
 
@@ -323,6 +345,9 @@ public class LibraryController {
                 case 4:
                     listAllBooks();
                     break;
+                case 5:
+                    importBooks();
+                    break;
                 case 0:
                     backToMainMenu = true;
                     break;
@@ -376,6 +401,15 @@ public class LibraryController {
         view.showBooks(books);
     }
 
+    private void importBooks() {
+        view.showMessage("\n--- Import Books from CSV ---");
+        view.showMessage("Columns: id,title,author,isbn,stock[,availableStock]");
+
+        String path = view.readString("Enter CSV file path: ").trim();
+        ImportResultDTO result = library.importBooks(path, rows -> view.showMessage("  " + rows + " rows read..."));
+        view.showImportResult(result);
+    }
+
     private void handleLoanManagement() {
         boolean backToMainMenu = false;
 
@@ -392,6 +426,12 @@ public class LibraryController {
                 case 3:
                     listAllLoans();
                     break;
+                case 4:
+                    createLoans();
+                    break;
+                case 5:
+                    registerReturns();
+                    break;
                 case 0:
                     backToMainMenu = true;
                     break;
@@ -428,6 +468,34 @@ public class LibraryController {
         }
     }
 
+    private void createLoans() {
+        view.showMessage("\n--- Batch Checkout ---");
+
+        String userId = view.readString("Enter user ID: ");
+        List<String> bookIds = view.readIdList("Enter book IDs (separated by commas or spaces): ");
+
+        if (bookIds.isEmpty()) {
+            view.showError("No book IDs entered.");
+            return;
+        }
+
+        view.showBatchResults(library.createLoans(userId, bookIds));
+    }
+
+    private void registerReturns() {
+        view.showMessage("\n--- Batch Return ---");
+
+        List<String> loanIds = view.readIdList("Enter loan IDs (separated by commas or spaces): ");
+
+        if (loanIds.isEmpty()) {
+            view.showError("No loan IDs entered.");
+            return;
+        }
+
+        List<BatchItemResultDTO> results = library.registerReturns(loanIds);
+        view.showBatchResults(results);
+    }
+
     private void listAllLoans() {
         List<LoanDTO> loans = library.getAllLoans();
         view.showLoans(loans);
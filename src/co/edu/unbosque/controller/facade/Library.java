@@ -6,7 +6,10 @@ import co.edu.unbosque.model.User;
 import co.edu.unbosque.model.dto.*;
 import co.edu.unbosque.model.persistence.*;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 public class Library {
     private final LibraryDAO libraryDAO;
@@ -44,6 +47,10 @@ public class Library {
         return UserMapper.toDTOList(users);
     }
 
+    public ImportResultDTO importUsers(String csvPath, IntConsumer progress) {
+        return libraryDAO.importUsers(new File(csvPath), progress);
+    }
+
     public boolean createBook(BookDTO bookDTO) {
         Book book = BookMapper.toEntity(bookDTO);
         return libraryDAO.createBook(book);
@@ -73,6 +80,10 @@ public class Library {
         return BookMapper.toDTOList(books);
     }
 
+    public ImportResultDTO importBooks(String csvPath, IntConsumer progress) {
+        return libraryDAO.importBooks(new File(csvPath), progress);
+    }
+
     public String createLoan(String userId, String bookId) {
         return libraryDAO.createLoan(userId, bookId);
     }
@@ -81,6 +92,14 @@ public class Library {
         return libraryDAO.registerReturn(loanId);
     }
 
+    public List<BatchItemResultDTO> createLoans(String userId, Collection<String> bookIds) {
+        return libraryDAO.createLoans(userId, bookIds);
+    }
+
+    public List<BatchItemResultDTO> registerReturns(Collection<String> loanIds) {
+        return libraryDAO.registerReturns(loanIds);
+    }
+
     public LoanDTO findLoanById(String id) {
         Loan loan = libraryDAO.findLoanById(id);
         return LoanMapper.toDTO(loan);
@@ -96,8 +115,17 @@ public class Library {
         return LoanMapper.toDTOList(loans);
     }
 
+    public List<LoanDTO> findLoansByBookId(String bookId) {
+        List<Loan> loans = libraryDAO.findLoansByBookId(bookId);
+        return LoanMapper.toDTOList(loans);
+    }
+
     public List<LoanDTO> getAllLoans() {
         List<Loan> loans = libraryDAO.getAllLoans();
         return LoanMapper.toDTOList(loans);
     }
+
+    public boolean close() {
+        return libraryDAO.close();
+    }
 }
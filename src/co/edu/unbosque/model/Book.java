@@ -1,12 +1,25 @@
 package co.edu.unbosque.model;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 public class Book {
+    private static final VarHandle AVAILABLE_STOCK;
+
+    static {
+        try {
+            AVAILABLE_STOCK = MethodHandles.lookup().findVarHandle(Book.class, "availableStock", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private String id;
     private String title;
     private String author;
     private String isbn;
     private int stock;
-    private int availableStock;
+    private volatile int availableStock;
 
     public Book() {
     }
@@ -68,6 +81,28 @@ public class Book {
         this.availableStock = availableStock;
     }
 
+    /**
+     * Takes one copy with a compare-and-set on the available stock.
+     * Returns false, without changing anything, when no copy is left.
+     */
+    public boolean tryReserve() {
+        int current;
+
+        do {
+            current = availableStock;
+
+            if (current <= 0) {
+                return false;
+            }
+        } while (!AVAILABLE_STOCK.compareAndSet(this, current, current - 1));
+
+        return true;
+    }
+
+    public void release() {
+        AVAILABLE_STOCK.getAndAdd(this, 1);
+    }
+
     public boolean isAvailable() {
         return availableStock > 0;
     }
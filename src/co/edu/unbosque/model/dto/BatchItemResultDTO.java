@@ -0,0 +1,45 @@
+package co.edu.unbosque.model.dto;
+
+public class BatchItemResultDTO {
+    private String itemId;
+    private boolean success;
+    private String message;
+
+    public BatchItemResultDTO() {
+    }
+
+    public BatchItemResultDTO(String itemId, boolean success, String message) {
+        this.itemId = itemId;
+        this.success = success;
+        this.message = message;
+    }
+
+    public String getItemId() {
+        return itemId;
+    }
+
+    public void setItemId(String itemId) {
+        this.itemId = itemId;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return itemId + ": " + (success ? "OK" : "FAILED") + " - " + message;
+    }
+}
@@ -0,0 +1,64 @@
+package co.edu.unbosque.model.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ImportResultDTO {
+    private int totalRows;
+    private int importedCount;
+    private boolean saved;
+    private String error;
+    private List<String> rejectedRows;
+
+    public ImportResultDTO() {
+        this.rejectedRows = new ArrayList<>();
+    }
+
+    public int getTotalRows() {
+        return totalRows;
+    }
+
+    public void setTotalRows(int totalRows) {
+        this.totalRows = totalRows;
+    }
+
+    public int getImportedCount() {
+        return importedCount;
+    }
+
+    public void setImportedCount(int importedCount) {
+        this.importedCount = importedCount;
+    }
+
+    public boolean isSaved() {
+        return saved;
+    }
+
+    public void setSaved(boolean saved) {
+        this.saved = saved;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public List<String> getRejectedRows() {
+        return rejectedRows;
+    }
+
+    public void setRejectedRows(List<String> rejectedRows) {
+        this.rejectedRows = rejectedRows;
+    }
+
+    public void addRejectedRow(int line, String reason) {
+        rejectedRows.add("Line " + line + ": " + reason);
+    }
+
+    public int getRejectedCount() {
+        return rejectedRows.size();
+    }
+}
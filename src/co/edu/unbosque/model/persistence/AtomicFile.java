@@ -0,0 +1,65 @@
+package co.edu.unbosque.model.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces a file without ever leaving it half written. The content goes to a temporary file
+ * next to the target, is forced to disk and then renamed over the target, so after a crash the
+ * target holds either the old content or the new one.
+ */
+public class AtomicFile {
+
+    private static final String TEMP_SUFFIX = ".saving";
+
+    public interface Content {
+        void writeTo(File file) throws IOException;
+    }
+
+    private AtomicFile() {
+    }
+
+    public static void write(File target, Content content) throws IOException {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+
+        try {
+            content.writeTo(temp);
+
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Makes the rename itself durable where the platform allows it (not on Windows).
+     */
+    private static void syncDirectory(File directory) {
+        if (directory == null) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported here; the rename is still atomic.
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package co.edu.unbosque.model.persistence;
+
+import co.edu.unbosque.model.Book;
+import co.edu.unbosque.model.Loan;
+import co.edu.unbosque.model.User;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned binary snapshot of one entity list (users.bin, books.bin, loans.bin).
+ * Layout: magic, format version, entity type, length and modification time of the text file it
+ * was built from, and record count, followed by the records. The snapshot is only used while the
+ * text file still has that length and time, so an edited or replaced text file always wins.
+ * Strings are UTF-8 prefixed with a varint of length + 1 (0 for null) and dates are epoch-day ints.
+ * Files are read through a buffer refilled straight from the channel, so decoding needs no per-field
+ * stream calls. They are not memory-mapped: a mapping outlives the channel and on Windows would keep
+ * the next save from replacing the file.
+ */
+public class BinarySnapshot {
+
+    private static final int MAGIC = 0x4C494253;
+    private static final short VERSION = 2;
+    private static final byte USER_TYPE = 'U';
+    private static final byte BOOK_TYPE = 'B';
+    private static final byte LOAN_TYPE = 'L';
+    private static final int NULL_DATE = Integer.MIN_VALUE;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * Whether the snapshot was built from the current text file (or the text file is gone).
+     */
+    public static boolean isCurrent(File snapshot, File textFile) {
+        if (!snapshot.exists()) {
+            return false;
+        }
+        if (!textFile.exists()) {
+            return true;
+        }
+
+        try (SnapshotInput in = new SnapshotInput(snapshot)) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                return false;
+            }
+
+            in.readByte();
+            return in.readLong() == textFile.length() && in.readLong() == textFile.lastModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static void writeUsers(File file, File textFile, List<User> users) throws IOException {
+        AtomicFile.write(file, temp -> {
+            try (DataOutputStream out = openOutput(temp, USER_TYPE, textFile, users.size())) {
+                for (User user : users) {
+                    writeString(out, user.getId());
+                    writeString(out, user.getName());
+                    writeString(out, user.getEmail());
+                    writeString(out, user.getPhone());
+                    writeString(out, user.getAddress());
+                    writeDate(out, user.getBirthDate());
+                    writeDate(out, user.getRegistrationDate());
+                    out.writeBoolean(user.isActive());
+                }
+            }
+        });
+    }
+
+    public static List<User> readUsers(File file) throws IOException {
+        try (SnapshotInput in = new SnapshotInput(file)) {
+            int count = readHeader(in, USER_TYPE);
+            List<User> users = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                users.add(new User(in.readString(), in.readString(), in.readString(), in.readString(),
+                        in.readString(), in.readDate(), in.readDate(), in.readBoolean()));
+            }
+            return users;
+        }
+    }
+
+    public static void writeBooks(File file, File textFile, List<Book> books) throws IOException {
+        AtomicFile.write(file, temp -> {
+            try (DataOutputStream out = openOutput(temp, BOOK_TYPE, textFile, books.size())) {
+                for (Book book : books) {
+                    writeString(out, book.getId());
+                    writeString(out, book.getTitle());
+                    writeString(out, book.getAuthor());
+                    writeString(out, book.getIsbn());
+                    out.writeInt(book.getStock());
+                    out.writeInt(book.getAvailableStock());
+                }
+            }
+        });
+    }
+
+    public static List<Book> readBooks(File file) throws IOException {
+        try (SnapshotInput in = new SnapshotInput(file)) {
+            int count = readHeader(in, BOOK_TYPE);
+            List<Book> books = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                books.add(new Book(in.readString(), in.readString(), in.readString(), in.readString(),
+                        in.readInt(), in.readInt()));
+            }
+            return books;
+        }
+    }
+
+    public static void writeLoans(File file, File textFile, List<Loan> loans) throws IOException {
+        AtomicFile.write(file, temp -> {
+            try (DataOutputStream out = openOutput(temp, LOAN_TYPE, textFile, loans.size())) {
+                for (Loan loan : loans) {
+                    writeString(out, loan.getId());
+                    writeString(out, loan.getUserId());
+                    writeString(out, loan.getBookId());
+                    writeDate(out, loan.getLoanDate());
+                    writeDate(out, loan.getReturnDate());
+                    out.writeBoolean(loan.isActive());
+                }
+            }
+        });
+    }
+
+    public static List<Loan> readLoans(File file) throws IOException {
+        try (SnapshotInput in = new SnapshotInput(file)) {
+            int count = readHeader(in, LOAN_TYPE);
+            List<Loan> loans = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                loans.add(new Loan(in.readString(), in.readString(), in.readString(),
+                        in.readDate(), in.readDate(), in.readBoolean()));
+            }
+            return loans;
+        }
+    }
+
+    private static DataOutputStream openOutput(File file, byte type, File textFile, int count) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeByte(type);
+        out.writeLong(textFile.length());
+        out.writeLong(textFile.lastModified());
+        out.writeInt(count);
+        return out;
+    }
+
+    private static int readHeader(SnapshotInput in, byte expectedType) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a library snapshot file");
+        }
+
+        short version = in.readShort();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+
+        byte type = in.readByte();
+
+        if (type != expectedType) {
+            throw new IOException("Snapshot holds '" + (char) type + "' records, expected '" + (char) expectedType + "'");
+        }
+
+        in.readLong();
+        in.readLong();
+
+        int count = in.readInt();
+
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("Invalid record count " + count);
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int prefix = bytes.length + 1;
+
+        while ((prefix & ~0x7F) != 0) {
+            out.writeByte((prefix & 0x7F) | 0x80);
+            prefix >>>= 7;
+        }
+        out.writeByte(prefix);
+        out.write(bytes);
+    }
+
+    private static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeInt(date == null ? NULL_DATE : (int) date.toEpochDay());
+    }
+
+    private static class SnapshotInput implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final long size;
+        private long position;
+        private byte[] scratch = new byte[256];
+
+        SnapshotInput(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.size = channel.size();
+            buffer.flip();
+        }
+
+        long remaining() {
+            return size - position + buffer.remaining();
+        }
+
+        /**
+         * Makes sure the buffer holds at least the given number of bytes (at most its capacity).
+         */
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+
+            buffer.compact();
+
+            try {
+                while (buffer.position() < bytes) {
+                    int read = channel.read(buffer, position);
+
+                    if (read < 0) {
+                        throw new EOFException("Snapshot is truncated");
+                    }
+                    position += read;
+                }
+            } finally {
+                buffer.flip();
+            }
+        }
+
+        int readInt() throws IOException {
+            require(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        long readLong() throws IOException {
+            require(Long.BYTES);
+            return buffer.getLong();
+        }
+
+        short readShort() throws IOException {
+            require(Short.BYTES);
+            return buffer.getShort();
+        }
+
+        byte readByte() throws IOException {
+            require(Byte.BYTES);
+            return buffer.get();
+        }
+
+        boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        LocalDate readDate() throws IOException {
+            int epochDay = readInt();
+            return epochDay == NULL_DATE ? null : LocalDate.ofEpochDay(epochDay);
+        }
+
+        String readString() throws IOException {
+            int prefix = 0;
+            int shift = 0;
+            byte b;
+
+            do {
+                if (shift > 28) {
+                    throw new IOException("Invalid string length in snapshot");
+                }
+                b = readByte();
+                prefix |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            if (prefix == 0) {
+                return null;
+            }
+
+            int length = prefix - 1;
+
+            if (length > remaining()) {
+                throw new EOFException("Snapshot is truncated");
+            }
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+
+            for (int copied = 0; copied < length; ) {
+                require(1);
+                int count = Math.min(length - copied, buffer.remaining());
+                buffer.get(scratch, copied, count);
+                copied += count;
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package co.edu.unbosque.model.persistence;
+
+import co.edu.unbosque.model.User;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Rewrites users.txt in place so every birth date uses the ISO format (version 2).
+ * Lines that already use it, or whose text date cannot be parsed, are copied unchanged.
+ * The new file is written next to the old one and then renamed over it, so an interrupted
+ * run leaves the original untouched. Close the application before running it.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=co.edu.unbosque.model.persistence.BirthDateMigration
+ */
+public class BirthDateMigration {
+
+    public static void main(String[] args) {
+        String dataDirectory = args.length > 0 ? args[0] : StorageDetector.detectStorageLocation();
+
+        if (!dataDirectory.endsWith(File.separator)) {
+            dataDirectory += File.separator;
+        }
+        migrate(dataDirectory);
+    }
+
+    public static boolean migrate(String dataDirectory) {
+        File file = new File(dataDirectory + "users.txt");
+        File tempFile = new File(dataDirectory + "users.txt.migrating");
+
+        if (!file.exists()) {
+            System.out.println("No users.txt found in " + dataDirectory + ", nothing to migrate.");
+            return true;
+        }
+
+        int migrated = 0;
+        int skipped = 0;
+
+        try (BufferedReader br = CompressedDataFile.openReader(file);
+             BufferedWriter bw = CompressedDataFile.openWriter(tempFile, CompressedDataFile.isCompressed(file))) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+
+                if (UserFileMapper.hasTextBirthDate(line)) {
+                    User user = UserFileMapper.fromFileLine(line);
+
+                    if (user != null && user.getBirthDate() != null) {
+                        line = UserFileMapper.toFileLine(user, false);
+                        migrated++;
+                    } else {
+                        System.out.println("Warning: Could not convert birth date at line " + lineNumber + ": " + line);
+                        skipped++;
+                    }
+                }
+
+                bw.write(line);
+                bw.newLine();
+            }
+        } catch (IOException e) {
+            System.out.println("Error migrating " + file.getPath() + ": " + e.getMessage());
+            tempFile.delete();
+            return false;
+        }
+
+        if (migrated == 0) {
+            tempFile.delete();
+            System.out.println("users.txt already uses ISO birth dates.");
+            return skipped == 0;
+        }
+
+        try {
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("Error replacing " + file.getPath() + ": " + e.getMessage());
+            return false;
+        }
+
+        System.out.println("Migrated " + migrated + " birth dates to ISO format"
+                + (skipped > 0 ? " (" + skipped + " lines left unchanged)." : "."));
+        return skipped == 0;
+    }
+}
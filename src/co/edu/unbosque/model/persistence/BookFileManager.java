@@ -9,41 +9,35 @@ import java.util.List;
 public class BookFileManager {
     
     private final String filePath;
+    private final File snapshotFile;
     private static final String DELIMITER = "|";
     
     public BookFileManager(String dataDirectory) {
         this.filePath = dataDirectory + "books.txt";
+        this.snapshotFile = new File(dataDirectory + "books.bin");
     }
     
     public List<Book> load() {
         List<Book> books = new ArrayList<>();
         File file = new File(filePath);
         
-        if (!file.exists()) {
+        if (!file.exists() && !snapshotFile.exists()) {
             System.out.println("Books file not found. Starting with empty book list.");
             return books;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            int lineNumber = 0;
-            
-            while ((line = br.readLine()) != null) {
-                lineNumber++;
-                
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                
-                Book book = BookFileMapper.fromFileLine(line);
-                
-                if (book != null) {
-                    books.add(book);
-                } else {
-                    System.out.println("Warning: Invalid book data at line " + lineNumber + ": " + line);
-                }
+        if (BinarySnapshot.isCurrent(snapshotFile, file)) {
+            try {
+                books = BinarySnapshot.readBooks(snapshotFile);
+                System.out.println("Loaded " + books.size() + " books from binary snapshot.");
+                return books;
+            } catch (IOException e) {
+                System.out.println("Error reading books snapshot, falling back to text file: " + e.getMessage());
             }
-            
+        }
+
+        try {
+            books = ParallelLineLoader.load(file, BookFileMapper::fromFileLine, Book::getId, "book");
             System.out.println("Loaded " + books.size() + " books from file.");
             
         } catch (IOException e) {
@@ -54,16 +48,33 @@ public class BookFileManager {
     }
 
     public boolean save(List<Book> books) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            for (Book book : books) {
-                bw.write(BookFileMapper.toFileLine(book));
-                bw.newLine();
-            }
-            return true;
+        CompressedDataFile.keepPrevious(new File(filePath));
+
+        try {
+            AtomicFile.write(new File(filePath), file -> {
+                try (BufferedWriter bw = CompressedDataFile.openWriter(file)) {
+                    for (Book book : books) {
+                        bw.write(BookFileMapper.toFileLine(book));
+                        bw.newLine();
+                    }
+                }
+            });
         } catch (IOException e) {
             System.out.println("Error saving books: " + e.getMessage());
             return false;
         }
+        
+        return !snapshotFile.exists() || saveSnapshot(books);
+    }
+
+    public boolean saveSnapshot(List<Book> books) {
+        try {
+            BinarySnapshot.writeBooks(snapshotFile, new File(filePath), books);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error saving books snapshot: " + e.getMessage());
+            return false;
+        }
     }
     
     public boolean exists() {
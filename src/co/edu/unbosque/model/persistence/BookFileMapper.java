@@ -7,31 +7,33 @@ public class BookFileMapper {
     private static final String DELIMITER = "|";
 
     public static Book fromFileLine(String line) {
-        if (line == null || line.trim().isEmpty()) {
+        FieldTokenizer fields = new FieldTokenizer(line);
+        
+        if (fields.isBlank()) {
             return null;
         }
         
-        String[] fields = line.split("\\" + DELIMITER);
+        int fieldCount = fields.countFields();
         
-        if (fields.length < 5) {
+        if (fieldCount < 5) {
             return null;
         }
         
         try {
             Book book = new Book();
             
-            book.setId(fields[0]);
-            book.setTitle(fields[1]);
-            book.setAuthor(fields[2]);
-            book.setIsbn(fields[3]);
+            book.setId(fields.nextString());
+            book.setTitle(fields.nextString());
+            book.setAuthor(fields.nextString());
+            book.setIsbn(fields.nextString());
             
-            if (fields.length == 5) {
-                boolean oldAvailable = Boolean.parseBoolean(fields[4]);
+            if (fieldCount == 5) {
+                boolean oldAvailable = fields.nextBoolean();
                 book.setStock(1);
                 book.setAvailableStock(oldAvailable ? 1 : 0);
-            } else if (fields.length >= 6) {
-                book.setStock(Integer.parseInt(fields[4]));
-                book.setAvailableStock(Integer.parseInt(fields[5]));
+            } else {
+                book.setStock(fields.nextInt());
+                book.setAvailableStock(fields.nextInt());
             }
             
             return book;
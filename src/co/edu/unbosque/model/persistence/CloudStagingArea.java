@@ -0,0 +1,333 @@
+package co.edu.unbosque.model.persistence;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Local working copy of a cloud-synced data folder. The application reads and writes the staging
+ * folder only; a background thread consolidates the journal into the data files and publishes the
+ * files that changed to the cloud folder every interval. Each file is copied next to its target
+ * and renamed over it, so the sync client sees one finished file instead of a file being rewritten.
+ * Published files keep the staging modification time, which is how unchanged files are skipped.
+ * The time and length of every file at its last pull or publish are kept in library.staging, so
+ * a file changed in either folder since then is recognised even when its clock is behind.
+ */
+public class CloudStagingArea {
+
+    private static final String CHECKPOINT_FILE = "library.checkpoint";
+    private static final String[] DATA_FILES = {
+        "users.txt", "books.txt", "loans.txt", "users.bin", "books.bin", "loans.bin", CHECKPOINT_FILE
+    };
+    private static final String JOURNAL_FILE = "library.journal";
+    private static final String TEMP_SUFFIX = ".publishing";
+    private static final String STATE_FILE = "library.staging";
+
+    private final File cloudDirectory;
+    private final File stagingDirectory;
+    private final Object filesLock;
+    private final Properties synced = new Properties();
+    private ScheduledExecutorService executor;
+    private Thread shutdownHook;
+    private BooleanSupplier consolidate;
+
+    /**
+     * @param filesLock held by whoever rewrites the data files in the staging folder, so a file
+     *                  is never published while it is half written
+     */
+    public CloudStagingArea(String cloudDirectory, String stagingDirectory, Object filesLock) {
+        this.cloudDirectory = new File(cloudDirectory);
+        this.stagingDirectory = new File(stagingDirectory);
+        this.filesLock = filesLock;
+        loadState();
+    }
+
+    public String getStagingDirectory() {
+        return stagingDirectory.getPath() + File.separator;
+    }
+
+    /**
+     * Copies every file that changed in the cloud folder since the last sync (or is missing
+     * locally) into the staging folder and returns the names copied, or null if something could
+     * not be copied. Nothing is copied while the staging folder holds changes that were never
+     * published, since they would be overwritten; if the cloud changed as well, the two copies
+     * have diverged and null is returned without touching either.
+     * A journal left there by a run without staging is taken over as well, so this must run
+     * before the staging journal is opened.
+     */
+    public List<String> pull() {
+        if (!stagingDirectory.exists() && !stagingDirectory.mkdirs()) {
+            System.out.println("Error: Could not create staging directory: " + stagingDirectory.getPath());
+            return null;
+        }
+
+        List<String> copied = new ArrayList<>();
+        boolean failed = false;
+
+        File cloudJournal = new File(cloudDirectory, JOURNAL_FILE);
+        File stagingJournal = new File(stagingDirectory, JOURNAL_FILE);
+
+        synchronized (filesLock) {
+            List<String> changedInCloud = new ArrayList<>();
+            List<String> unpublished = new ArrayList<>();
+
+            for (String name : DATA_FILES) {
+                File source = new File(cloudDirectory, name);
+                File target = new File(stagingDirectory, name);
+
+                if (source.exists() && !stampOf(source).equals(stampOf(target))) {
+                    changedInCloud.add(name);
+                }
+                if (target.exists() && !stampOf(target).equals(synced.getProperty(name))
+                        && !stampOf(target).equals(stampOf(source))) {
+                    unpublished.add(name);
+                }
+            }
+            if (LibraryJournal.hasRecords(stagingJournal)) {
+                unpublished.add(JOURNAL_FILE);
+            }
+
+            if (LibraryJournal.hasRecords(cloudJournal)
+                    && !stampOf(cloudJournal).equals(synced.getProperty(JOURNAL_FILE))) {
+                changedInCloud.add(JOURNAL_FILE);
+            }
+
+            if (!unpublished.isEmpty()) {
+                changedInCloud.removeIf(name -> stampOf(new File(cloudDirectory, name)).equals(synced.getProperty(name)));
+
+                if (changedInCloud.isEmpty()) {
+                    return copied;
+                }
+
+                System.out.println("Warning: " + String.join(", ", unpublished) + " in " + stagingDirectory.getPath()
+                        + " were never published and " + cloudDirectory.getPath() + " changed since."
+                        + " Leaving both folders as they are.");
+                return null;
+            }
+
+            for (String name : changedInCloud) {
+                File source = new File(cloudDirectory, name);
+                File target = new File(stagingDirectory, name);
+
+                try {
+                    Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.COPY_ATTRIBUTES);
+                    // The journal is recorded as found in the cloud: that is the copy publishing may remove.
+                    synced.setProperty(name, stampOf(name.equals(JOURNAL_FILE) ? source : target));
+                    copied.add(name);
+                } catch (IOException e) {
+                    System.out.println("Error copying " + source.getPath() + " to staging: " + e.getMessage());
+                    failed = true;
+                }
+            }
+            if (!copied.isEmpty()) {
+                saveState();
+            }
+        }
+
+        if (!copied.isEmpty()) {
+            System.out.println("Copied " + copied.size() + " files from " + cloudDirectory.getPath() + " to staging.");
+        }
+        return failed ? null : copied;
+    }
+
+    /**
+     * Publishes every interval. The consolidate step runs first and must fold the journal
+     * into the data files; publishing is skipped for that round if it fails.
+     */
+    public synchronized void start(BooleanSupplier consolidate, long intervalMillis) {
+        if (executor != null) {
+            return;
+        }
+
+        this.consolidate = consolidate;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-cloud-publish");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::sync, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        this.shutdownHook = new Thread(this::sync, "library-cloud-publish-drain");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    private boolean sync() {
+        boolean consolidated;
+
+        try {
+            consolidated = consolidate == null || consolidate.getAsBoolean();
+        } catch (RuntimeException e) {
+            System.out.println("Error consolidating data before publishing: " + e.getMessage());
+            consolidated = false;
+        }
+
+        return consolidated && publish();
+    }
+
+    /**
+     * Copies the data files that differ from their cloud copy. A cloud file that changed since
+     * the last sync was written by someone else and is never overwritten: publishing fails until
+     * the two folders are reconciled. Once everything is published, the journal taken over from
+     * the cloud folder on startup is removed, since its changes are now in the data files; a
+     * journal this instance did not take over, or that changed since, is left alone.
+     */
+    public boolean publish() {
+        synchronized (filesLock) {
+            boolean published = true;
+            boolean stateChanged = false;
+
+            for (String name : DATA_FILES) {
+                File source = new File(stagingDirectory, name);
+                File target = new File(cloudDirectory, name);
+
+                // The checkpoint comes last and must not get ahead of the data files it describes.
+                if (!published && name.equals(CHECKPOINT_FILE)) {
+                    break;
+                }
+
+                if (source.exists() && !stampOf(source).equals(stampOf(target))) {
+                    if (target.exists() && !stampOf(target).equals(synced.getProperty(name))) {
+                        System.out.println("Warning: " + target.getPath() + " changed since the last sync,"
+                                + " not overwriting it. Latest changes stay in " + stagingDirectory.getPath() + ".");
+                        published = false;
+                        continue;
+                    }
+                    published &= publishFile(source, target);
+                }
+                if (source.exists() && stampOf(source).equals(stampOf(target))
+                        && !stampOf(target).equals(synced.getProperty(name))) {
+                    synced.setProperty(name, stampOf(target));
+                    stateChanged = true;
+                }
+            }
+
+            File cloudJournal = new File(cloudDirectory, JOURNAL_FILE);
+            String takenOver = synced.getProperty(JOURNAL_FILE);
+
+            if (published && takenOver != null) {
+                if (!stampOf(cloudJournal).equals(takenOver)) {
+                    System.out.println("Warning: " + cloudJournal.getPath() + " changed since it was taken over,"
+                            + " leaving it in place.");
+                } else if (!cloudJournal.delete()) {
+                    System.out.println("Warning: Could not remove " + cloudJournal.getPath() + ".");
+                }
+                synced.remove(JOURNAL_FILE);
+                stateChanged = true;
+            }
+
+            if (stateChanged) {
+                saveState();
+            }
+            return published;
+        }
+    }
+
+    /**
+     * Modification time and length of a file, or "" if it does not exist.
+     */
+    private static String stampOf(File file) {
+        return file.exists() ? file.lastModified() + ":" + file.length() : "";
+    }
+
+    private void loadState() {
+        File file = new File(stagingDirectory, STATE_FILE);
+
+        if (!file.exists()) {
+            return;
+        }
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            synced.load(reader);
+        } catch (IOException e) {
+            System.out.println("Warning: Could not read " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private void saveState() {
+        File file = new File(stagingDirectory, STATE_FILE);
+
+        try {
+            AtomicFile.write(file, temp -> {
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                    synced.store(writer, "LibraryApp staging: files as of their last pull or publish");
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Error saving " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private boolean publishFile(File source, File target) {
+        Path temp = new File(cloudDirectory, target.getName() + TEMP_SUFFIX).toPath();
+
+        try {
+            Files.copy(source.toPath(), temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+
+            try {
+                Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error publishing " + target.getPath() + ": " + e.getMessage());
+
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Overwritten by the next attempt.
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Stops the background publisher and publishes one last time.
+     */
+    public boolean close() {
+        synchronized (this) {
+            if (executor == null) {
+                return publish();
+            }
+
+            executor.shutdown();
+        }
+
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down: the hook is publishing as well.
+        }
+
+        boolean published = sync();
+
+        if (!published) {
+            System.out.println("Warning: Latest changes are saved in " + stagingDirectory.getPath()
+                    + " but could not be published to " + cloudDirectory.getPath() + ".");
+        }
+        return published;
+    }
+}
@@ -0,0 +1,449 @@
+package co.edu.unbosque.model.persistence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Block-compressed data files. The file is a series of gzip members of about 1 MB of text each,
+ * every one ending on a line boundary, followed by an empty member that marks a complete file.
+ * Each member stores its compressed size and a CRC32C of its compressed bytes in a gzip extra field
+ * ("LB"), so a loader can find every block from the headers alone, check the blocks in parallel
+ * before inflating them, and step over a damaged block to the next header instead of failing the
+ * whole file. Since the file is still plain multi-member gzip, "gunzip -c users.txt" shows the text.
+ * Compression is recognised by the gzip magic bytes, so the data files keep their names and both
+ * forms are loaded.
+ */
+public class CompressedDataFile {
+
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int HEADER_SIZE = 24;
+    private static final int UNCHECKED_HEADER_SIZE = 20;
+    private static final int TRAILER_SIZE = 8;
+    private static final int EMPTY_DEFLATE_SIZE = 2;
+    private static final int SCAN_SIZE = 1 << 16;
+    private static final int MAX_BLOCK_SIZE = Integer.MAX_VALUE - 64;
+    private static final String PREVIOUS_SUFFIX = ".previous";
+    private static final boolean COMPRESS = LibrarySettings.getBoolean("LIBRARY_COMPRESS", false);
+    private static final int LEVEL = LibrarySettings.getInt("LIBRARY_COMPRESSION_LEVEL", Deflater.BEST_SPEED);
+
+    /**
+     * One block of a compressed file, or a damaged region between two readable block headers.
+     */
+    static class Block {
+        final long start;
+        final long size;
+        final int headerSize;
+        final int checksum;
+        final boolean damaged;
+
+        Block(long start, long size, int headerSize, int checksum, boolean damaged) {
+            this.start = start;
+            this.size = size;
+            this.headerSize = headerSize;
+            this.checksum = checksum;
+            this.damaged = damaged;
+        }
+
+        boolean isEndMarker() {
+            return !damaged && size == headerSize + EMPTY_DEFLATE_SIZE + TRAILER_SIZE;
+        }
+
+        @Override
+        public String toString() {
+            return "bytes " + start + "-" + (start + size);
+        }
+    }
+
+    private CompressedDataFile() {
+    }
+
+    public static boolean isCompressed(File file) {
+        if (file.length() < 2) {
+            return false;
+        }
+
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A writer in the default charset, like FileWriter, that compresses when LIBRARY_COMPRESS=true.
+     */
+    public static BufferedWriter openWriter(File file) throws IOException {
+        return openWriter(file, COMPRESS);
+    }
+
+    public static BufferedWriter openWriter(File file, boolean compress) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+
+        if (compress) {
+            out = new BlockOutputStream(out, LEVEL);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()));
+    }
+
+    /**
+     * A reader for a plain or compressed data file, in the default charset like FileReader.
+     */
+    public static BufferedReader openReader(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+
+        if (isCompressed(file)) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        return new BufferedReader(new InputStreamReader(in, Charset.defaultCharset()));
+    }
+
+    public static File previousFile(File file) {
+        return new File(file.getPath() + PREVIOUS_SUFFIX);
+    }
+
+    /**
+     * Called before a compressed data file is replaced: keeps it as name.previous (a hard link
+     * where the file system allows it, a copy otherwise), so damaged blocks found in the next
+     * version can be recovered from it. A file that is itself damaged is not kept, so the last
+     * intact copy survives.
+     */
+    public static void keepPrevious(File file) {
+        if (!isCompressed(file)) {
+            return;
+        }
+
+        File previous = previousFile(file);
+
+        try {
+            if (!isIntact(file)) {
+                System.out.println("Warning: " + file.getName() + " is damaged, keeping " + previous.getName()
+                        + " as the last intact copy.");
+                return;
+            }
+
+            AtomicFile.write(previous, temp -> {
+                try {
+                    Files.createLink(temp.toPath(), file.toPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Warning: Could not keep " + previous.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * True when every block is readable and matches its checksum and the file ends with the end
+     * marker. Only checksums are computed; nothing is inflated.
+     */
+    static boolean isIntact(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<Block> blocks = findBlocks(channel);
+
+            if (blocks == null || blocks.isEmpty() || !blocks.get(blocks.size() - 1).isEndMarker()) {
+                return false;
+            }
+
+            for (Block block : blocks) {
+                if (block.damaged || !hasValidChecksum(readBlock(channel, block), block)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Every block in file order, read from the member headers. A region that does not start with
+     * a valid header (overwritten or cut short, e.g. by a sync client) is returned as one damaged
+     * block reaching up to the next valid header. Returns null for a gzip file written by another
+     * tool, which can only be read sequentially.
+     */
+    static List<Block> findBlocks(FileChannel channel) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long size = channel.size();
+        long position = 0;
+
+        while (position < size) {
+            Block block = readHeader(channel, header, position, size);
+
+            if (block == null) {
+                if (position == 0) {
+                    return null;
+                }
+
+                long next = findNextHeader(channel, header, position + 1, size);
+                blocks.add(new Block(position, next - position, 0, 0, true));
+                position = next;
+                continue;
+            }
+
+            blocks.add(block);
+            position += block.size;
+        }
+
+        return blocks;
+    }
+
+    /**
+     * The block starting at the given position, or null if there is no valid header there or
+     * the block would run past the end of the file.
+     */
+    private static Block readHeader(FileChannel channel, ByteBuffer header, long position, long size)
+            throws IOException {
+        header.clear();
+
+        if (size - position < UNCHECKED_HEADER_SIZE + EMPTY_DEFLATE_SIZE + TRAILER_SIZE
+                || channel.read(header, position) < UNCHECKED_HEADER_SIZE) {
+            return null;
+        }
+
+        if ((header.get(0) & 0xff) != 0x1f || (header.get(1) & 0xff) != 0x8b || header.get(2) != 8
+                || header.get(3) != 4 || header.get(12) != 'L' || header.get(13) != 'B') {
+            return null;
+        }
+
+        int extraSize = header.getShort(10);
+        int fieldSize = header.getShort(14);
+        int headerSize;
+
+        if (extraSize == 12 && fieldSize == 8 && header.position() == HEADER_SIZE) {
+            headerSize = HEADER_SIZE;
+        } else if (extraSize == 8 && fieldSize == 4) {
+            // Written before blocks carried a CRC32C; checked by the gzip CRC32 only.
+            headerSize = UNCHECKED_HEADER_SIZE;
+        } else {
+            return null;
+        }
+
+        long blockSize = header.getInt(16) & 0xffffffffL;
+
+        if (blockSize < headerSize + EMPTY_DEFLATE_SIZE + TRAILER_SIZE || blockSize > size - position) {
+            return null;
+        }
+
+        int checksum = headerSize == HEADER_SIZE ? header.getInt(20) : 0;
+        return new Block(position, blockSize, headerSize, checksum, false);
+    }
+
+    private static long findNextHeader(FileChannel channel, ByteBuffer header, long position, long size)
+            throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(SCAN_SIZE);
+
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+
+            if (read <= 0) {
+                break;
+            }
+
+            for (int i = 0; i < read; i++) {
+                if ((window.get(i) & 0xff) == 0x1f && readHeader(channel, header, position + i, size) != null) {
+                    return position + i;
+                }
+            }
+            position += read;
+        }
+
+        return size;
+    }
+
+    private static ByteBuffer readBlock(FileChannel channel, Block block) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) block.size).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, block.start + bytes.position()) < 0) {
+                throw new EOFException("Compressed block at " + block.start + " is truncated");
+            }
+        }
+        return bytes;
+    }
+
+    private static boolean hasValidChecksum(ByteBuffer bytes, Block block) {
+        if (block.headerSize != HEADER_SIZE) {
+            return true;
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.array(), block.headerSize, (int) block.size - block.headerSize - TRAILER_SIZE);
+        return (int) crc.getValue() == block.checksum;
+    }
+
+    /**
+     * Checks one block against its CRC32C, inflates it and checks the text against its CRC32.
+     */
+    static ByteBuffer inflateBlock(FileChannel channel, Block block) throws IOException {
+        ByteBuffer bytes = readBlock(channel, block);
+        long start = block.start;
+        int size = (int) block.size;
+
+        if (!hasValidChecksum(bytes, block)) {
+            throw new IOException("Compressed block at " + start + " failed its checksum");
+        }
+
+        int expectedCrc = bytes.getInt(size - 8);
+        int textSize = bytes.getInt(size - 4);
+
+        if (textSize < 0) {
+            throw new IOException("Compressed block at " + start + " is damaged");
+        }
+
+        byte[] text = new byte[textSize];
+        Inflater inflater = new Inflater(true);
+
+        try {
+            inflater.setInput(bytes.array(), block.headerSize, size - block.headerSize - TRAILER_SIZE);
+            int inflated = 0;
+
+            while (inflated < textSize && !inflater.finished()) {
+                int count = inflater.inflate(text, inflated, textSize - inflated);
+
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+
+            if (inflated != textSize) {
+                throw new IOException("Compressed block at " + start + " is damaged");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed block at " + start + " is damaged: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(text, 0, textSize);
+
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Compressed block at " + start + " failed its checksum");
+        }
+        return ByteBuffer.wrap(text);
+    }
+
+    /**
+     * Buffers text and writes it as one gzip member per block, cut after the last complete line.
+     */
+    private static class BlockOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final CRC32C blockCrc = new CRC32C();
+        private byte[] buffer = new byte[BLOCK_SIZE];
+        private byte[] compressed = new byte[BLOCK_SIZE + BLOCK_SIZE / 8];
+        private int count;
+
+        BlockOutputStream(OutputStream out, int level) {
+            this.out = new BufferedOutputStream(out, 1 << 16);
+            this.deflater = new Deflater(level, true);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    writeFullLines();
+                }
+
+                int copied = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        private void writeFullLines() throws IOException {
+            int end = count;
+
+            while (end > 0 && buffer[end - 1] != '\n') {
+                end--;
+            }
+
+            if (end == 0) {
+                // A single line longer than the block: let the block grow.
+                if (buffer.length >= MAX_BLOCK_SIZE / 2) {
+                    throw new IOException("Line too long for a compressed block");
+                }
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                return;
+            }
+
+            writeBlock(buffer, end);
+            System.arraycopy(buffer, end, buffer, 0, count - end);
+            count -= end;
+        }
+
+        private void writeBlock(byte[] text, int length) throws IOException {
+            deflater.reset();
+            deflater.setInput(text, 0, length);
+            deflater.finish();
+
+            int size = 0;
+
+            while (!deflater.finished()) {
+                if (size == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                size += deflater.deflate(compressed, size, compressed.length - size);
+            }
+
+            crc.reset();
+            crc.update(text, 0, length);
+            blockCrc.reset();
+            blockCrc.update(compressed, 0, size);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte) 0x1f).put((byte) 0x8b).put((byte) 8).put((byte) 4)
+                  .putInt(0).put((byte) 0).put((byte) 0xff)
+                  .putShort((short) 12).put((byte) 'L').put((byte) 'B').putShort((short) 8)
+                  .putInt(HEADER_SIZE + size + TRAILER_SIZE).putInt((int) blockCrc.getValue());
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) crc.getValue()).putInt(length);
+
+            out.write(header.array());
+            out.write(compressed, 0, size);
+            out.write(trailer.array());
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (count > 0) {
+                    writeBlock(buffer, count);
+                    count = 0;
+                }
+                writeBlock(buffer, 0);
+                out.close();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
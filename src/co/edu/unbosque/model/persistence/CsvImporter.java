@@ -0,0 +1,271 @@
+package co.edu.unbosque.model.persistence;
+
+import co.edu.unbosque.model.Book;
+import co.edu.unbosque.model.User;
+import co.edu.unbosque.model.dto.ImportResultDTO;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Streams a CSV file in chunks of lines and parses and validates each chunk in parallel.
+ * Fields are comma-separated and may be quoted ("a, b" and "say ""hi"""); a first row whose
+ * first field is "id" is treated as a header. Rows that fail validation are reported in the
+ * result with their line number, valid rows are returned in file order.
+ */
+public class CsvImporter {
+
+    private static final int CHUNK_LINES = 10_000;
+
+    private CsvImporter() {
+    }
+
+    public static class Row<T> {
+        private final int line;
+        private final T entity;
+
+        Row(int line, T entity) {
+            this.line = line;
+            this.entity = entity;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public T getEntity() {
+            return entity;
+        }
+    }
+
+    public static <T> List<Row<T>> read(File file, Function<List<String>, T> parser,
+                                        ImportResultDTO result, IntConsumer progress) throws IOException {
+        List<Row<T>> rows = new ArrayList<>();
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            List<String> chunk = new ArrayList<>(CHUNK_LINES);
+            int firstLine = 1;
+            int lineNumber = 0;
+            boolean headerChecked = false;
+            String line;
+
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+
+                if (!headerChecked && !line.trim().isEmpty()) {
+                    headerChecked = true;
+
+                    if (isHeader(line)) {
+                        firstLine = lineNumber + 1;
+                        continue;
+                    }
+                }
+
+                chunk.add(line);
+
+                if (chunk.size() == CHUNK_LINES) {
+                    parseChunk(chunk, firstLine, parser, rows, result);
+                    progress.accept(result.getTotalRows());
+                    firstLine = lineNumber + 1;
+                    chunk.clear();
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                parseChunk(chunk, firstLine, parser, rows, result);
+                progress.accept(result.getTotalRows());
+            }
+        }
+
+        return rows;
+    }
+
+    private static <T> void parseChunk(List<String> chunk, int firstLine, Function<List<String>, T> parser,
+                                       List<Row<T>> rows, ImportResultDTO result) {
+        List<ParsedLine<T>> parsed = IntStream.range(0, chunk.size())
+                .parallel()
+                .mapToObj(i -> parseLine(chunk.get(i), parser))
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < parsed.size(); i++) {
+            ParsedLine<T> outcome = parsed.get(i);
+
+            if (outcome == null) {
+                continue;
+            }
+
+            result.setTotalRows(result.getTotalRows() + 1);
+
+            if (outcome.entity != null) {
+                rows.add(new Row<>(firstLine + i, outcome.entity));
+            } else {
+                result.addRejectedRow(firstLine + i, outcome.reason);
+            }
+        }
+    }
+
+    /**
+     * Null for a blank line.
+     */
+    private static <T> ParsedLine<T> parseLine(String line, Function<List<String>, T> parser) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new ParsedLine<>(parser.apply(splitFields(line)), null);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return new ParsedLine<>(null, e.getMessage());
+        }
+    }
+
+    private static class ParsedLine<T> {
+        private final T entity;
+        private final String reason;
+
+        ParsedLine(T entity, String reason) {
+            this.entity = entity;
+            this.reason = reason;
+        }
+    }
+
+    private static boolean isHeader(String line) {
+        try {
+            return splitFields(line).get(0).equalsIgnoreCase("id");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public static List<String> splitFields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    /**
+     * id,title,author,isbn,stock[,availableStock]
+     */
+    public static Book parseBook(List<String> fields) {
+        checkFieldCount(fields, 5, 6);
+
+        String id = required(fields, 0, "id");
+        String title = required(fields, 1, "title");
+        int stock = number(fields, 4, "stock");
+        int availableStock = fields.size() == 6 ? number(fields, 5, "availableStock") : stock;
+
+        if (availableStock > stock) {
+            throw new IllegalArgumentException("availableStock " + availableStock + " is greater than stock " + stock);
+        }
+
+        return new Book(id, title, text(fields, 2, "author"), text(fields, 3, "isbn"), stock, availableStock);
+    }
+
+    /**
+     * id,name,email,phone,address,birthDate(yyyy-MM-dd)[,active]; registered today.
+     */
+    public static User parseUser(List<String> fields) {
+        checkFieldCount(fields, 6, 7);
+
+        String id = required(fields, 0, "id");
+        String name = required(fields, 1, "name");
+        String email = text(fields, 2, "email");
+
+        if (!email.isEmpty() && email.indexOf('@') <= 0) {
+            throw new IllegalArgumentException("Invalid email '" + email + "'");
+        }
+
+        String birthDateText = required(fields, 5, "birthDate");
+        LocalDate birthDate;
+
+        try {
+            birthDate = LocalDate.parse(birthDateText);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid birthDate '" + birthDateText + "', expected yyyy-MM-dd");
+        }
+
+        boolean active = fields.size() < 7 || fields.get(6).isEmpty() || Boolean.parseBoolean(fields.get(6));
+
+        return new User(id, name, email, text(fields, 3, "phone"), text(fields, 4, "address"),
+                birthDate, LocalDate.now(), active);
+    }
+
+    private static void checkFieldCount(List<String> fields, int min, int max) {
+        if (fields.size() < min || fields.size() > max) {
+            throw new IllegalArgumentException("Expected " + (min == max - 1 ? min + " or " + max : min)
+                    + " fields but found " + fields.size());
+        }
+    }
+
+    private static String text(List<String> fields, int index, String name) {
+        String value = fields.get(index);
+
+        if (value.indexOf('|') >= 0) {
+            throw new IllegalArgumentException("Field " + name + " must not contain '|'");
+        }
+        return value;
+    }
+
+    private static String required(List<String> fields, int index, String name) {
+        String value = text(fields, index, name);
+
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return value;
+    }
+
+    private static int number(List<String> fields, int index, String name) {
+        String value = fields.get(index);
+        int number;
+
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " '" + value + "'");
+        }
+
+        if (number < 0) {
+            throw new IllegalArgumentException(name + " must not be negative");
+        }
+        return number;
+    }
+}
@@ -0,0 +1,88 @@
+package co.edu.unbosque.model.persistence;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the data folder for files written by other instances. Events are collected until the
+ * folder has been quiet for the settle delay (a sync client usually writes a file in several
+ * steps), then the names of the changed files are handed to the listener on the watcher thread.
+ * An overflow reports null, meaning "anything may have changed".
+ */
+public class DataDirectoryWatcher {
+
+    private final Path directory;
+    private final WatchService watchService;
+    private final Consumer<Set<String>> listener;
+    private final long settleMillis;
+    private final Thread thread;
+
+    public DataDirectoryWatcher(Path directory, long settleMillis, Consumer<Set<String>> listener) throws IOException {
+        this.directory = directory;
+        this.settleMillis = settleMillis;
+        this.listener = listener;
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.thread = new Thread(this::run, "library-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Set<String> changed = new HashSet<>();
+                boolean overflow = collect(watchService.take(), changed);
+                WatchKey key;
+
+                while ((key = watchService.poll(settleMillis, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, changed);
+                }
+
+                try {
+                    listener.accept(overflow ? null : changed);
+                } catch (RuntimeException e) {
+                    System.out.println("Error reloading changes from " + directory + ": " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed.
+        }
+    }
+
+    private boolean collect(WatchKey key, Set<String> changed) {
+        boolean overflow = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else {
+                changed.add(event.context().toString());
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println("Error closing watcher for " + directory + ": " + e.getMessage());
+        }
+        thread.interrupt();
+    }
+}
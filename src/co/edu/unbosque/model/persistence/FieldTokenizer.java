@@ -0,0 +1,191 @@
+package co.edu.unbosque.model.persistence;
+
+import java.time.LocalDate;
+
+/**
+ * Walks the pipe-delimited fields of one data file line by index.
+ * Numbers, booleans and ISO dates are parsed straight from the line's characters,
+ * so only the text fields that end up in an entity are copied out as Strings.
+ */
+public class FieldTokenizer {
+
+    private static final char DELIMITER = '|';
+
+    private final String line;
+    private final int length;
+    private int fieldStart;
+    private int fieldEnd;
+    private int nextStart;
+
+    public FieldTokenizer(String line) {
+        this.line = line;
+        this.length = line == null ? 0 : line.length();
+        this.fieldStart = 0;
+        this.fieldEnd = -1;
+        this.nextStart = 0;
+    }
+
+    public boolean isBlank() {
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int countFields() {
+        if (length == 0) {
+            return 0;
+        }
+
+        int count = 1;
+
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) == DELIMITER) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean hasNext() {
+        return nextStart <= length && length > 0;
+    }
+
+    private void advance() {
+        if (!hasNext()) {
+            throw new IllegalStateException("No more fields in line");
+        }
+
+        fieldStart = nextStart;
+        int delimiter = line.indexOf(DELIMITER, fieldStart);
+        fieldEnd = delimiter == -1 ? length : delimiter;
+        nextStart = fieldEnd + 1;
+    }
+
+    public void skip() {
+        advance();
+    }
+
+    public String nextString() {
+        advance();
+        return line.substring(fieldStart, fieldEnd);
+    }
+
+    public boolean nextIsEmpty() {
+        return peekLength() == 0;
+    }
+
+    /**
+     * True when the next field has the yyyy-MM-dd shape, so {@link #nextDate()} can read it.
+     */
+    public boolean nextLooksLikeIsoDate() {
+        if (peekLength() != 10) {
+            return false;
+        }
+
+        return Character.isDigit(line.charAt(nextStart)) && line.charAt(nextStart + 4) == '-'
+                && line.charAt(nextStart + 7) == '-';
+    }
+
+    private int peekLength() {
+        if (!hasNext()) {
+            return -1;
+        }
+
+        int delimiter = line.indexOf(DELIMITER, nextStart);
+        return (delimiter == -1 ? length : delimiter) - nextStart;
+    }
+
+    public int nextInt() {
+        advance();
+        int i = fieldStart;
+
+        if (i == fieldEnd) {
+            throw new NumberFormatException("For input string: \"\"");
+        }
+
+        boolean negative = false;
+        char first = line.charAt(i);
+
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+
+            if (i == fieldEnd) {
+                throw invalidNumber();
+            }
+        }
+
+        long value = 0;
+
+        for (; i < fieldEnd; i++) {
+            int digit = line.charAt(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+                throw invalidNumber();
+            }
+
+            value = value * 10 + digit;
+
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw invalidNumber();
+            }
+        }
+
+        value = negative ? -value : value;
+
+        if (value > Integer.MAX_VALUE) {
+            throw invalidNumber();
+        }
+        return (int) value;
+    }
+
+    private NumberFormatException invalidNumber() {
+        return new NumberFormatException("For input string: \"" + line.substring(fieldStart, fieldEnd) + "\"");
+    }
+
+    public boolean nextBoolean() {
+        advance();
+        return fieldEnd - fieldStart == 4 && line.regionMatches(true, fieldStart, "true", 0, 4);
+    }
+
+    /**
+     * Parses a yyyy-MM-dd field; an empty field or the literal "null" yields null.
+     */
+    public LocalDate nextDate() {
+        advance();
+        int fieldLength = fieldEnd - fieldStart;
+
+        if (fieldLength == 0 || (fieldLength == 4 && line.startsWith("null", fieldStart))) {
+            return null;
+        }
+
+        if (fieldLength == 10 && line.charAt(fieldStart + 4) == '-' && line.charAt(fieldStart + 7) == '-') {
+            int year = digits(fieldStart, 4);
+            int month = digits(fieldStart + 5, 2);
+            int day = digits(fieldStart + 8, 2);
+
+            if (year >= 0 && month >= 0 && day >= 0) {
+                return LocalDate.of(year, month, day);
+            }
+        }
+
+        return LocalDate.parse(line.substring(fieldStart, fieldEnd));
+    }
+
+    private int digits(int from, int count) {
+        int value = 0;
+
+        for (int i = from; i < from + count; i++) {
+            int digit = line.charAt(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -4,32 +4,118 @@ import co.edu.unbosque.model.Book;
 import co.edu.unbosque.model.Loan;
 import co.edu.unbosque.model.User;
 
+import co.edu.unbosque.model.persistence.UnitOfWork.EntitySet;
+
 import java.io.*;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 public class FileManager {
     
     private static final String DATA_DIR = StorageDetector.detectStorageLocation();
+    private static final boolean JOURNAL_ENABLED = LibrarySettings.getBoolean("LIBRARY_JOURNAL", true);
+    private static final int COMPACTION_THRESHOLD = LibrarySettings.getInt("LIBRARY_JOURNAL_COMPACT_AFTER", 500);
+    private static final boolean SYNC_ON_COMMIT = LibrarySettings.getBoolean("LIBRARY_JOURNAL_SYNC", true);
+    private static final boolean WRITE_BEHIND = LibrarySettings.getBoolean("LIBRARY_WRITE_BEHIND", false);
+    private static final int FLUSH_INTERVAL_MS = LibrarySettings.getInt("LIBRARY_FLUSH_INTERVAL_MS", 2000);
+    private static final int FLUSH_THRESHOLD = LibrarySettings.getInt("LIBRARY_FLUSH_THRESHOLD", 100);
+    private static final boolean STAGING = LibrarySettings.getBoolean("LIBRARY_STAGING", false);
+    private static final int PUBLISH_INTERVAL_MS = LibrarySettings.getInt("LIBRARY_PUBLISH_INTERVAL_MS", 30000);
+    private static final boolean WATCH = LibrarySettings.getBoolean("LIBRARY_WATCH", false);
+    private static final int WATCH_SETTLE_MS = LibrarySettings.getInt("LIBRARY_WATCH_SETTLE_MS", 500);
+    private static final boolean SHARED_FOLDER = LibrarySettings.getBoolean("LIBRARY_SHARED_FOLDER", false);
+    private static final String JOURNAL_FILE = "library.journal";
     
+    private final String workingDir;
+    private final CloudStagingArea staging;
+    private final Object filesLock = new Object();
     private final UserFileManager userFileManager;
     private final BookFileManager bookFileManager;
     private final LoanFileManager loanFileManager;
+    private final LibraryJournal journal;
+    private Map<EntitySet, List<String>> journalRecords;
+    private boolean journalLoaded;
+    private final Set<EntitySet> unsavedSets = EnumSet.noneOf(EntitySet.class);
+    private final Map<EntitySet, String> fileVersions = new EnumMap<>(EntitySet.class);
+    private DataDirectoryWatcher watcher;
+    private final SharedFolderLock folderLock;
     
     public FileManager() {
-        this.userFileManager = new UserFileManager(DATA_DIR);
-        this.bookFileManager = new BookFileManager(DATA_DIR);
-        this.loanFileManager = new LoanFileManager(DATA_DIR);
-        
         System.out.println("\n=== File Manager Configuration ===");
         System.out.println("📁 Data directory: " + DATA_DIR);
         System.out.println("   Absolute path: " + new File(DATA_DIR).getAbsolutePath());
         checkIfDataDirectoryExists();
+        this.staging = createStagingArea();
+        this.workingDir = staging != null ? staging.getStagingDirectory() : DATA_DIR;
         displayStorageInfo();
+
+        this.userFileManager = new UserFileManager(workingDir);
+        this.bookFileManager = new BookFileManager(workingDir);
+        this.loanFileManager = new LoanFileManager(workingDir);
+        this.journal = new LibraryJournal(workingDir, SYNC_ON_COMMIT);
+        this.folderLock = SHARED_FOLDER ? new SharedFolderLock(DATA_DIR) : null;
+
+        System.out.println(JOURNAL_ENABLED
+                ? "📝 Journal mode: compaction every " + COMPACTION_THRESHOLD + " changes"
+                : "📝 Journal mode disabled (full rewrite on every change)");
+        if (SHARED_FOLDER) {
+            System.out.println("🔒 Shared folder: writers coordinate through library.lock");
+        }
+        if (WRITE_BEHIND) {
+            System.out.println(SHARED_FOLDER
+                    ? "⚠️  Write-behind is not available with a shared folder, saving every change"
+                    : "⏱️  Write-behind: saving every " + FLUSH_INTERVAL_MS + " ms or " + FLUSH_THRESHOLD + " changes");
+        }
+        if (WATCH) {
+            System.out.println("👀 Watching for changes made by other instances");
+        }
         System.out.println("===================================\n");
     }
     
+    /**
+     * With LIBRARY_STAGING=true and a cloud-synced data folder, the application works on a local
+     * copy and only finished files are published to the cloud folder; see {@link CloudStagingArea}.
+     */
+    private CloudStagingArea createStagingArea() {
+        if (!STAGING || "Local".equals(StorageDetector.getStorageType(DATA_DIR))) {
+            return null;
+        }
+        if (SHARED_FOLDER || WATCH) {
+            // The staging copy is private: other instances would neither see its changes in time
+            // nor be locked out while it publishes whole files over theirs.
+            System.out.println("⚠️  Staging is not available with a shared folder or folder watching, working directly on "
+                    + DATA_DIR);
+            return null;
+        }
+
+        String cloudPath = new File(DATA_DIR).getAbsolutePath();
+        String stagingPath = LibrarySettings.getString("LIBRARY_STAGING_DIR",
+                System.getProperty("user.home") + File.separator + ".libraryapp" + File.separator + "staging"
+                        + File.separator + Integer.toHexString(cloudPath.hashCode()));
+        CloudStagingArea area = new CloudStagingArea(DATA_DIR, stagingPath, filesLock);
+
+        if (area.pull() == null) {
+            System.out.println("Warning: Could not prepare the staging copy, working directly on " + DATA_DIR);
+            return null;
+        }
+        return area;
+    }
+
     private void displayStorageInfo() {
         String storageType = StorageDetector.getStorageType(DATA_DIR);
+
+        if (staging != null) {
+            System.out.println("☁️  " + storageType + " staging: working on " + staging.getStagingDirectory());
+            System.out.println("   Publishing changes every " + PUBLISH_INTERVAL_MS + " ms and on exit");
+            return;
+        }
         
         switch (storageType) {
             case "Google Drive":
@@ -62,7 +148,9 @@ public class FileManager {
     }
 
     public List<User> loadUsers() {
-        return userFileManager.load();
+        recordVersion(EntitySet.USERS);
+        return LibraryJournal.replay(userFileManager.load(), committedRecords(EntitySet.USERS),
+                User::getId, UserFileMapper::fromFileLine);
     }
 
     public boolean saveUsers(List<User> users) {
@@ -70,7 +158,9 @@ public class FileManager {
     }
 
     public List<Book> loadBooks() {
-        return bookFileManager.load();
+        recordVersion(EntitySet.BOOKS);
+        return LibraryJournal.replay(bookFileManager.load(), committedRecords(EntitySet.BOOKS),
+                Book::getId, BookFileMapper::fromFileLine);
     }
 
     public boolean saveBooks(List<Book> books) {
@@ -78,13 +168,275 @@ public class FileManager {
     }
 
     public List<Loan> loadLoans() {
-        return loanFileManager.load();
+        recordVersion(EntitySet.LOANS);
+        return LibraryJournal.replay(loanFileManager.load(), committedRecords(EntitySet.LOANS),
+                Loan::getId, LoanFileMapper::fromFileLine);
     }
 
     public boolean saveLoans(List<Loan> loans) {
         return loanFileManager.save(loans);
     }
 
+    /**
+     * The first load reads the whole journal for all three sets; reloads later re-read only the
+     * batches already applied, so batches that arrived in between are left for {@link #readJournalTail}.
+     */
+    private synchronized List<String> committedRecords(EntitySet set) {
+        if (journalRecords == null && !journalLoaded) {
+            journalRecords = journal.readCommitted();
+            journalLoaded = true;
+        }
+        return journalRecords != null ? journalRecords.get(set) : journal.readCommitted(set);
+    }
+
+    /**
+     * True when another instance compacted the journal since this one last read or wrote it. Its
+     * data files then hold batches never read here, so every set has to be loaded again; the next
+     * loads read the new journal from the start.
+     */
+    public synchronized boolean isJournalReplaced() {
+        if (!journal.isReplaced()) {
+            return false;
+        }
+
+        journalRecords = null;
+        journalLoaded = false;
+        return true;
+    }
+
+    /**
+     * Batches committed to the journal by other instances since it was last read or written.
+     */
+    public synchronized Map<EntitySet, List<String>> readJournalTail() {
+        journalRecords = null;
+        return journal.readAppended();
+    }
+
+    /**
+     * Appends every change collected in the unit of work to the journal as one batch (one write,
+     * one sync). When journal mode is off or the journal cannot be written, the touched sets are
+     * remembered instead and written by the next {@link #compact}; false means that is still due.
+     */
+    public synchronized boolean append(UnitOfWork work) {
+        if (work.isEmpty()) {
+            return true;
+        }
+
+        journalRecords = null;
+
+        if (JOURNAL_ENABLED && journal.append(work)) {
+            return true;
+        }
+
+        unsavedSets.addAll(work.getDirtySets());
+        return false;
+    }
+
+    /**
+     * Marks a set as changed outside the journal, e.g. by a bulk import, so the next
+     * {@link #compact} rewrites its data file.
+     */
+    public synchronized void requireSnapshot(EntitySet set) {
+        unsavedSets.add(set);
+    }
+
+    public synchronized boolean hasPendingChanges() {
+        return !unsavedSets.isEmpty() || journal.size() > 0;
+    }
+
+    public synchronized boolean needsCompaction() {
+        return !unsavedSets.isEmpty() || journal.size() >= COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Rewrites the data files of every set with journaled or unsaved changes, records the checkpoint
+     * and empties the journal. Each file is replaced in one rename, so a crash leaves either the old
+     * file (and the journal to replay on it) or the new one. Callers must keep the lists from
+     * changing until it returns.
+     */
+    public synchronized boolean compact(Supplier<List<User>> users, Supplier<List<Book>> books,
+                                        Supplier<List<Loan>> loans) {
+        Set<EntitySet> sets = journal.getPendingSets();
+        sets.addAll(unsavedSets);
+
+        if (sets.isEmpty()) {
+            return true;
+        }
+
+        if (journal.size() > 0) {
+            System.out.println("Compacting journal (" + journal.size() + " records)...");
+        }
+
+        journalRecords = null;
+
+        if (!writeSnapshots(sets, users, books, loans) || !journal.checkpoint()) {
+            return false;
+        }
+
+        unsavedSets.clear();
+        return true;
+    }
+
+    /**
+     * Returns a flusher that hands units of work to the given store in the background,
+     * or null when write-behind is disabled.
+     */
+    public WriteBehindFlusher createFlusher(Predicate<UnitOfWork> store) {
+        return WRITE_BEHIND && !SHARED_FOLDER ? new WriteBehindFlusher(store, FLUSH_INTERVAL_MS, FLUSH_THRESHOLD) : null;
+    }
+
+    /**
+     * Starts publishing the staging copy to the cloud folder, if staging is active. The
+     * consolidate step must write the journaled changes into the data files.
+     */
+    public void startPublisher(BooleanSupplier consolidate) {
+        if (staging != null) {
+            staging.start(consolidate, PUBLISH_INTERVAL_MS);
+        }
+    }
+
+    private boolean writeSnapshots(Set<EntitySet> sets, Supplier<List<User>> users,
+                                   Supplier<List<Book>> books, Supplier<List<Loan>> loans) {
+        boolean saved = true;
+
+        synchronized (filesLock) {
+            if (sets.contains(EntitySet.USERS)) {
+                saved &= saveUsers(users.get());
+            }
+            if (sets.contains(EntitySet.BOOKS)) {
+                saved &= saveBooks(books.get());
+            }
+            if (sets.contains(EntitySet.LOANS)) {
+                saved &= saveLoans(loans.get());
+            }
+            sets.forEach(this::recordVersion);
+        }
+        return saved;
+    }
+
+    /**
+     * With LIBRARY_SHARED_FOLDER=true, takes the cross-instance lock on the data folder and
+     * returns true; the caller must call {@link #unlockFolder} when done. Returns false and
+     * takes nothing otherwise. Throws UncheckedIOException, holding nothing, if the lock file
+     * cannot be locked.
+     */
+    public boolean lockFolder() {
+        if (folderLock == null) {
+            return false;
+        }
+        folderLock.lock();
+        return true;
+    }
+
+    public void unlockFolder() {
+        if (folderLock != null) {
+            folderLock.unlock();
+        }
+    }
+
+    /**
+     * With LIBRARY_WATCH=true, calls refresh whenever another instance sharing the data folder
+     * changes the journal or a data file.
+     */
+    public void startWatcher(Runnable refresh) {
+        if (!WATCH) {
+            return;
+        }
+
+        try {
+            watcher = new DataDirectoryWatcher(Paths.get(DATA_DIR), WATCH_SETTLE_MS,
+                    names -> onExternalChange(names, refresh));
+            watcher.start();
+        } catch (IOException e) {
+            System.out.println("Warning: Could not watch " + DATA_DIR + " for changes: " + e.getMessage());
+        }
+    }
+
+    private void onExternalChange(Set<String> names, Runnable refresh) {
+        if (names == null || names.contains(JOURNAL_FILE)) {
+            refresh.run();
+            return;
+        }
+
+        for (EntitySet set : EntitySet.values()) {
+            if (names.contains(dataFileName(set))) {
+                refresh.run();
+                return;
+            }
+        }
+    }
+
+    /**
+     * True when the set's data file was rewritten by someone else since this instance last read
+     * or wrote it, recognised by size and modification time. A set with local changes that are
+     * not saved yet reports false, with a warning, so they are not thrown away.
+     */
+    public synchronized boolean isExternalChange(EntitySet set) {
+        boolean changed;
+
+        synchronized (filesLock) {
+            changed = !fileVersion(set).equals(fileVersions.get(set));
+        }
+
+        return changed && !keepsLocalChanges(set);
+    }
+
+    /**
+     * False, with a warning, for a set whose local changes are not saved yet.
+     */
+    public synchronized boolean canReload(EntitySet set) {
+        return !keepsLocalChanges(set);
+    }
+
+    private boolean keepsLocalChanges(EntitySet set) {
+        if (!unsavedSets.contains(set)) {
+            return false;
+        }
+
+        System.out.println("Warning: " + dataFileName(set) + " was changed by another instance, "
+                + "but local changes are not saved yet. Keeping the local data.");
+        return true;
+    }
+
+    private void recordVersion(EntitySet set) {
+        synchronized (filesLock) {
+            fileVersions.put(set, fileVersion(set));
+        }
+    }
+
+    private String fileVersion(EntitySet set) {
+        File file = new File(workingDir + dataFileName(set));
+        return file.lastModified() + ":" + file.length();
+    }
+
+    private static String dataFileName(EntitySet set) {
+        switch (set) {
+            case USERS:
+                return "users.txt";
+            case BOOKS:
+                return "books.txt";
+            default:
+                return "loans.txt";
+        }
+    }
+
+    /**
+     * Stops watching, publishes the staging copy one last time and releases the journal.
+     */
+    public boolean close() {
+        if (watcher != null) {
+            watcher.close();
+        }
+
+        boolean published = staging == null || staging.close();
+        journal.close();
+
+        if (folderLock != null) {
+            folderLock.close();
+        }
+        return published;
+    }
+
     public boolean checkFiles() {
         boolean usersExist = userFileManager.exists();
         boolean booksExist = bookFileManager.exists();
@@ -3,224 +3,1028 @@ package co.edu.unbosque.model.persistence;
 import co.edu.unbosque.model.Book;
 import co.edu.unbosque.model.Loan;
 import co.edu.unbosque.model.User;
+import co.edu.unbosque.model.dto.BatchItemResultDTO;
+import co.edu.unbosque.model.dto.ImportResultDTO;
+import co.edu.unbosque.model.persistence.UnitOfWork.EntitySet;
 
 import java.io.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
+/**
+ * In-memory store for users, books and loans, safe to share between threads.
+ * Each entity set is guarded by its own read/write lock, so lookups run in parallel and only
+ * wait for writers of the same set. Operations that touch several sets always take the locks
+ * in users, books, loans order. Checkouts and returns only read-lock the books and move the
+ * available stock with a compare-and-set, so an out-of-stock title is refused without any write
+ * lock. A mutation is persisted before its locks are released, so the journal sees changes in
+ * the same order as memory; a batch holds every write lock until it commits.
+ */
 public class LibraryDAO {
+    private static final Comparator<Loan> LOAN_DATE_ORDER = Comparator
+            .comparing(Loan::getLoanDate, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(Loan::getId);
+
     private final FileManager fileManager;
     private List<User> users;
     private List<Book> books;
     private List<Loan> loans;
+    private final Map<String, User> usersById;
+    private final Map<String, Book> booksById;
+    private final Map<String, Loan> loansById;
+    private final Map<String, List<Loan>> loansByUserId;
+    private final Map<String, List<Loan>> loansByBookId;
+    private final Map<String, Integer> activeLoansByUserId;
+    private final Map<String, Integer> activeLoansByBookId;
+    private final NavigableSet<Loan> activeLoans;
+    private final NameIndex<User> usersByName;
+    private final TrigramIndex<Book> booksByTitle;
+    private final ReentrantReadWriteLock userLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock bookLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock loanLock = new ReentrantReadWriteLock();
+    private final ThreadLocal<WorkState> workState = ThreadLocal.withInitial(WorkState::new);
+    private final WriteBehindFlusher flusher;
+    private final LoanIdGenerator loanIdGenerator;
+
+    private static class WorkState {
+        private UnitOfWork work;
+        private int depth;
+    }
 
     public LibraryDAO() {
+        this(new SnowflakeLoanIdGenerator());
+    }
+
+    public LibraryDAO(LoanIdGenerator loanIdGenerator) {
         this.fileManager = new FileManager();
+        this.loanIdGenerator = loanIdGenerator;
         users = new ArrayList<>();
         books = new ArrayList<>();
         loans = new ArrayList<>();
-        loadData();
+        usersById = new HashMap<>();
+        booksById = new HashMap<>();
+        loansById = new HashMap<>();
+        loansByUserId = new HashMap<>();
+        loansByBookId = new HashMap<>();
+        activeLoansByUserId = new HashMap<>();
+        activeLoansByBookId = new HashMap<>();
+        activeLoans = new TreeSet<>(LOAN_DATE_ORDER);
+        usersByName = new NameIndex<>(User::getId, User::getName);
+        booksByTitle = new TrigramIndex<>(Book::getId, Book::getTitle);
+        fileManager.lockFolder();
+        try {
+            loadData();
+        } finally {
+            fileManager.unlockFolder();
+        }
+        loanIdGenerator.seed(loans);
+        this.flusher = fileManager.createFlusher(this::store);
+        fileManager.startPublisher(() -> compact(true));
+        fileManager.startWatcher(this::refresh);
     }
 
     public boolean createUser(User user) {
-        if (findUserById(user.getId()) != null) {
-            return false;
-        }
-        users.add(user);
-        saveUsers();
-        return true;
+        return sharedWrite(() -> {
+            userLock.writeLock().lock();
+            try {
+                if (usersById.containsKey(user.getId())) {
+                    return false;
+                }
+                UnitOfWork work = beginWork();
+                try {
+                    users.add(user);
+                    usersById.put(user.getId(), user);
+                    usersByName.add(user);
+                    work.putUser(user);
+                } finally {
+                    endWork();
+                }
+            } finally {
+                userLock.writeLock().unlock();
+            }
+            compactIfNeeded();
+            return true;
+        });
     }
 
     public boolean updateUser(User user) {
-        User existingUser = findUserById(user.getId());
-        if (existingUser == null) {
-            return false;
-        }
-        existingUser.setName(user.getName());
-        existingUser.setEmail(user.getEmail());
-        existingUser.setPhone(user.getPhone());
-        existingUser.setAddress(user.getAddress());
-        existingUser.setBirthDate(user.getBirthDate());
-        existingUser.setActive(user.isActive());
-        saveUsers();
-        return true;
+        return sharedWrite(() -> {
+            userLock.writeLock().lock();
+            try {
+                User existingUser = usersById.get(user.getId());
+                if (existingUser == null) {
+                    return false;
+                }
+                existingUser.setName(user.getName());
+                existingUser.setEmail(user.getEmail());
+                existingUser.setPhone(user.getPhone());
+                existingUser.setAddress(user.getAddress());
+                existingUser.setBirthDate(user.getBirthDate());
+                existingUser.setActive(user.isActive());
+                usersByName.update(existingUser);
+                UnitOfWork work = beginWork();
+                try {
+                    work.putUser(existingUser);
+                } finally {
+                    endWork();
+                }
+            } finally {
+                userLock.writeLock().unlock();
+            }
+            compactIfNeeded();
+            return true;
+        });
     }
 
     public boolean deleteUser(String id) {
-        User user = findUserById(id);
-        if (user == null) {
-            return false;
-        }
-        
-        boolean hasActiveLoans = loans.stream()
-            .anyMatch(l -> l.getUserId().equals(id) && l.isActive());
-        
-        if (hasActiveLoans) {
-            return false;
-        }
-        
-        users.remove(user);
-        saveUsers();
-        return true;
+        return sharedWrite(() -> {
+            userLock.writeLock().lock();
+            loanLock.readLock().lock();
+            try {
+                User user = usersById.get(id);
+                if (user == null) {
+                    return false;
+                }
+
+                if (activeLoansByUserId.containsKey(id)) {
+                    return false;
+                }
+
+                users.remove(user);
+                usersById.remove(id);
+                usersByName.remove(id);
+                UnitOfWork work = beginWork();
+                try {
+                    work.removeUser(id);
+                } finally {
+                    endWork();
+                }
+            } finally {
+                loanLock.readLock().unlock();
+                userLock.writeLock().unlock();
+            }
+            compactIfNeeded();
+            return true;
+        });
     }
 
     public User findUserById(String id) {
-        return users.stream()
-            .filter(u -> u.getId().equals(id))
-            .findFirst()
-            .orElse(null);
+        userLock.readLock().lock();
+        try {
+            return usersById.get(id);
+        } finally {
+            userLock.readLock().unlock();
+        }
     }
 
     public List<User> findUsersByName(String name) {
-        return users.stream()
-            .filter(u -> u.getName().toLowerCase().contains(name.toLowerCase()))
-            .collect(Collectors.toList());
+        userLock.readLock().lock();
+        try {
+            return usersByName.search(name);
+        } finally {
+            userLock.readLock().unlock();
+        }
     }
 
     public List<User> getAllUsers() {
-        return new ArrayList<>(users);
+        userLock.readLock().lock();
+        try {
+            return new ArrayList<>(users);
+        } finally {
+            userLock.readLock().unlock();
+        }
     }
 
     public boolean createBook(Book book) {
-        if (findBookById(book.getId()) != null) {
-            return false;
-        }
-        books.add(book);
-        saveBooks();
-        return true;
+        return sharedWrite(() -> {
+            bookLock.writeLock().lock();
+            try {
+                if (booksById.containsKey(book.getId())) {
+                    return false;
+                }
+                books.add(book);
+                booksById.put(book.getId(), book);
+                booksByTitle.add(book);
+                UnitOfWork work = beginWork();
+                try {
+                    work.putBook(book);
+                } finally {
+                    endWork();
+                }
+            } finally {
+                bookLock.writeLock().unlock();
+            }
+            compactIfNeeded();
+            return true;
+        });
     }
 
     public boolean updateBook(Book book) {
-        Book existingBook = findBookById(book.getId());
-        if (existingBook == null) {
-            return false;
-        }
-        existingBook.setTitle(book.getTitle());
-        existingBook.setAuthor(book.getAuthor());
-        existingBook.setIsbn(book.getIsbn());
-        existingBook.setStock(book.getStock());
-        existingBook.setAvailableStock(book.getAvailableStock());
-        saveBooks();
-        return true;
+        return sharedWrite(() -> {
+            bookLock.writeLock().lock();
+            try {
+                Book existingBook = booksById.get(book.getId());
+                if (existingBook == null) {
+                    return false;
+                }
+                existingBook.setTitle(book.getTitle());
+                existingBook.setAuthor(book.getAuthor());
+                existingBook.setIsbn(book.getIsbn());
+                existingBook.setStock(book.getStock());
+                existingBook.setAvailableStock(book.getAvailableStock());
+                booksByTitle.update(existingBook);
+                UnitOfWork work = beginWork();
+                try {
+                    work.putBook(existingBook);
+                } finally {
+                    endWork();
+                }
+            } finally {
+                bookLock.writeLock().unlock();
+            }
+            compactIfNeeded();
+            return true;
+        });
     }
 
     public boolean deleteBook(String id) {
-        Book book = findBookById(id);
-        if (book == null) {
-            return false;
-        }
-        
-        boolean isLoaned = loans.stream()
-            .anyMatch(l -> l.getBookId().equals(id) && l.isActive());
-        
-        if (isLoaned) {
-            return false;
-        }
-        
-        books.remove(book);
-        saveBooks();
-        return true;
+        return sharedWrite(() -> {
+            bookLock.writeLock().lock();
+            loanLock.readLock().lock();
+            try {
+                Book book = booksById.get(id);
+                if (book == null) {
+                    return false;
+                }
+
+                if (activeLoansByBookId.containsKey(id)) {
+                    return false;
+                }
+
+                books.remove(book);
+                booksById.remove(id);
+                booksByTitle.remove(id);
+                UnitOfWork work = beginWork();
+                try {
+                    work.removeBook(id);
+                } finally {
+                    endWork();
+                }
+            } finally {
+                loanLock.readLock().unlock();
+                bookLock.writeLock().unlock();
+            }
+            compactIfNeeded();
+            return true;
+        });
     }
 
     public Book findBookById(String id) {
-        return books.stream()
-            .filter(b -> b.getId().equals(id))
-            .findFirst()
-            .orElse(null);
+        bookLock.readLock().lock();
+        try {
+            return booksById.get(id);
+        } finally {
+            bookLock.readLock().unlock();
+        }
     }
 
     public List<Book> findBooksByTitle(String title) {
-        return books.stream()
-            .filter(b -> b.getTitle().toLowerCase().contains(title.toLowerCase()))
-            .collect(Collectors.toList());
+        bookLock.readLock().lock();
+        try {
+            return booksByTitle.search(title);
+        } finally {
+            bookLock.readLock().unlock();
+        }
     }
 
     public List<Book> getAllBooks() {
-        return new ArrayList<>(books);
+        bookLock.readLock().lock();
+        try {
+            return new ArrayList<>(books);
+        } finally {
+            bookLock.readLock().unlock();
+        }
     }
 
     public String createLoan(String userId, String bookId) {
-        User user = findUserById(userId);
-        if (user == null) {
-            return null;
-        }
+        return sharedWrite(() -> {
+            String loanId;
 
-        Book book = findBookById(bookId);
-        if (book == null || book.getAvailableStock() <= 0) {
-            return null;
-        }
+            userLock.readLock().lock();
+            bookLock.readLock().lock();
+            try {
+                User user = usersById.get(userId);
+                if (user == null) {
+                    return null;
+                }
 
-        String loanId = "L" + System.currentTimeMillis();
-        Loan loan = new Loan(loanId, userId, bookId, LocalDate.now(), null, true);
-        loans.add(loan);
-        book.setAvailableStock(book.getAvailableStock() - 1);
-        
-        saveLoans();
-        saveBooks();
-        return loanId;
+                Book book = booksById.get(bookId);
+                if (book == null || !book.tryReserve()) {
+                    return null;
+                }
+
+                loanLock.writeLock().lock();
+                try {
+                    // Another instance can mint the same ID if both ended up with one node ID.
+                    do {
+                        loanId = loanIdGenerator.nextId();
+                    } while (loansById.containsKey(loanId));
+                    Loan loan = new Loan(loanId, userId, bookId, LocalDate.now(), null, true);
+                    loans.add(loan);
+                    loansById.put(loanId, loan);
+                    indexLoan(loan);
+
+                    UnitOfWork work = beginWork();
+                    try {
+                        work.putLoan(loan);
+                        work.putBook(book);
+                    } finally {
+                        endWork();
+                    }
+                } finally {
+                    loanLock.writeLock().unlock();
+                }
+            } finally {
+                bookLock.readLock().unlock();
+                userLock.readLock().unlock();
+            }
+            compactIfNeeded();
+            return loanId;
+        });
     }
 
     public boolean registerReturn(String loanId) {
-        Loan loan = findLoanById(loanId);
+        return sharedWrite(() -> {
+            bookLock.readLock().lock();
+            loanLock.writeLock().lock();
+            try {
+                Loan loan = loansById.get(loanId);
 
-        if (loan == null || !loan.isActive()) {
-            return false;
-        }
+                if (loan == null || !loan.isActive()) {
+                    return false;
+                }
+
+                loan.setReturnDate(LocalDate.now());
+                loan.setActive(false);
+                decrementActiveCount(activeLoansByUserId, loan.getUserId());
+                decrementActiveCount(activeLoansByBookId, loan.getBookId());
+                activeLoans.remove(loan);
+
+                Book book = booksById.get(loan.getBookId());
 
-        loan.setReturnDate(LocalDate.now());
-        loan.setActive(false);
+                if (book != null) {
+                    book.release();
+                }
 
-        Book book = findBookById(loan.getBookId());
+                UnitOfWork work = beginWork();
+                try {
+                    work.putLoan(loan);
 
-        if (book != null) {
-            book.setAvailableStock(book.getAvailableStock() + 1);
+                    if (book != null) {
+                        work.putBook(book);
+                    }
+                } finally {
+                    endWork();
+                }
+            } finally {
+                loanLock.writeLock().unlock();
+                bookLock.readLock().unlock();
+            }
+            compactIfNeeded();
+            return true;
+        });
+    }
+
+    /**
+     * Checks out several books to one user as a single batch: every item is validated and
+     * reported on its own, and all accepted loans and stock changes are persisted together.
+     * The message of a successful item is the new loan ID.
+     */
+    public List<BatchItemResultDTO> createLoans(String userId, Collection<String> bookIds) {
+        List<BatchItemResultDTO> results = new ArrayList<>(bookIds.size());
+
+        beginBatch();
+        try {
+            boolean userExists = usersById.containsKey(userId);
+
+            for (String bookId : bookIds) {
+                if (!userExists) {
+                    results.add(new BatchItemResultDTO(bookId, false, "User not found"));
+                } else if (!booksById.containsKey(bookId)) {
+                    results.add(new BatchItemResultDTO(bookId, false, "Book not found"));
+                } else {
+                    String loanId = createLoan(userId, bookId);
+                    results.add(loanId != null
+                            ? new BatchItemResultDTO(bookId, true, loanId)
+                            : new BatchItemResultDTO(bookId, false, "No copies available"));
+                }
+            }
+        } finally {
+            commitBatch();
         }
+        return results;
+    }
 
-        saveLoans();
-        saveBooks();
-        return true;
+    /**
+     * Registers several returns as a single batch, reporting each loan on its own and
+     * persisting all loan and stock changes together.
+     */
+    public List<BatchItemResultDTO> registerReturns(Collection<String> loanIds) {
+        List<BatchItemResultDTO> results = new ArrayList<>(loanIds.size());
+        Set<String> seen = new HashSet<>();
+
+        beginBatch();
+        try {
+            for (String loanId : loanIds) {
+                Loan loan = loansById.get(loanId);
+
+                if (!seen.add(loanId)) {
+                    results.add(new BatchItemResultDTO(loanId, false, "Repeated in this batch"));
+                } else if (loan == null) {
+                    results.add(new BatchItemResultDTO(loanId, false, "Loan not found"));
+                } else if (!loan.isActive()) {
+                    results.add(new BatchItemResultDTO(loanId, false, "Already returned"));
+                } else {
+                    registerReturn(loanId);
+                    results.add(new BatchItemResultDTO(loanId, true, "Returned"));
+                }
+            }
+        } finally {
+            commitBatch();
+        }
+        return results;
     }
 
     public Loan findLoanById(String id) {
-        return loans.stream()
-            .filter(l -> l.getId().equals(id))
-            .findFirst()
-            .orElse(null);
+        loanLock.readLock().lock();
+        try {
+            return loansById.get(id);
+        } finally {
+            loanLock.readLock().unlock();
+        }
     }
 
     public List<Loan> getActiveLoans() {
-        return loans.stream()
-            .filter(Loan::isActive)
-            .collect(Collectors.toList());
+        loanLock.readLock().lock();
+        try {
+            return new ArrayList<>(activeLoans);
+        } finally {
+            loanLock.readLock().unlock();
+        }
     }
 
     public List<Loan> findLoansByUserId(String userId) {
-        return loans.stream()
-            .filter(l -> l.getUserId().equals(userId))
-            .collect(Collectors.toList());
+        loanLock.readLock().lock();
+        try {
+            return new ArrayList<>(loansByUserId.getOrDefault(userId, Collections.emptyList()));
+        } finally {
+            loanLock.readLock().unlock();
+        }
+    }
+
+    public List<Loan> findLoansByBookId(String bookId) {
+        loanLock.readLock().lock();
+        try {
+            return new ArrayList<>(loansByBookId.getOrDefault(bookId, Collections.emptyList()));
+        } finally {
+            loanLock.readLock().unlock();
+        }
     }
 
     public List<Loan> getAllLoans() {
-        return new ArrayList<>(loans);
+        loanLock.readLock().lock();
+        try {
+            return new ArrayList<>(loans);
+        } finally {
+            loanLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Imports users from a CSV file (see {@link CsvImporter#parseUser}). Rows are parsed and
+     * validated in parallel, IDs already present or repeated in the file are rejected, and the
+     * accepted users are written to users.txt once at the end instead of through the journal.
+     */
+    public ImportResultDTO importUsers(File file, IntConsumer progress) {
+        ImportResultDTO result = new ImportResultDTO();
+        final List<CsvImporter.Row<User>> rows;
+
+        try {
+            rows = CsvImporter.read(file, CsvImporter::parseUser, result, progress);
+        } catch (IOException e) {
+            result.setError("Cannot read " + file.getPath() + ": " + e.getMessage());
+            return result;
+        }
+
+        return sharedWrite(() -> {
+            userLock.writeLock().lock();
+            try {
+                Map<String, Integer> firstLines = new HashMap<>();
+
+                for (CsvImporter.Row<User> row : rows) {
+                    User user = row.getEntity();
+
+                    if (isDuplicate(user.getId(), row.getLine(), firstLines, usersById, result)) {
+                        continue;
+                    }
+                    users.add(user);
+                    usersById.put(user.getId(), user);
+                    usersByName.add(user);
+                }
+            } finally {
+                userLock.writeLock().unlock();
+            }
+
+            return finishImport(EntitySet.USERS, result);
+        });
+    }
+
+    /**
+     * Imports books from a CSV file (see {@link CsvImporter#parseBook}), with the same
+     * validation and single final write as {@link #importUsers}.
+     */
+    public ImportResultDTO importBooks(File file, IntConsumer progress) {
+        ImportResultDTO result = new ImportResultDTO();
+        final List<CsvImporter.Row<Book>> rows;
+
+        try {
+            rows = CsvImporter.read(file, CsvImporter::parseBook, result, progress);
+        } catch (IOException e) {
+            result.setError("Cannot read " + file.getPath() + ": " + e.getMessage());
+            return result;
+        }
+
+        return sharedWrite(() -> {
+            bookLock.writeLock().lock();
+            try {
+                Map<String, Integer> firstLines = new HashMap<>();
+
+                for (CsvImporter.Row<Book> row : rows) {
+                    Book book = row.getEntity();
+
+                    if (isDuplicate(book.getId(), row.getLine(), firstLines, booksById, result)) {
+                        continue;
+                    }
+                    books.add(book);
+                    booksById.put(book.getId(), book);
+                    booksByTitle.add(book);
+                }
+            } finally {
+                bookLock.writeLock().unlock();
+            }
+
+            return finishImport(EntitySet.BOOKS, result);
+        });
+    }
+
+    private boolean isDuplicate(String id, int line, Map<String, Integer> firstLines,
+                                Map<String, ?> existing, ImportResultDTO result) {
+        Integer firstLine = firstLines.putIfAbsent(id, line);
+
+        if (firstLine != null) {
+            result.addRejectedRow(line, "Duplicate ID " + id + " (first seen at line " + firstLine + ")");
+            return true;
+        }
+        if (existing.containsKey(id)) {
+            result.addRejectedRow(line, "ID " + id + " already exists");
+            return true;
+        }
+        return false;
+    }
+
+    private ImportResultDTO finishImport(EntitySet set, ImportResultDTO result) {
+        result.setImportedCount(result.getTotalRows() - result.getRejectedCount());
+
+        if (result.getImportedCount() == 0) {
+            result.setSaved(true);
+            return result;
+        }
+
+        fileManager.requireSnapshot(set);
+        result.setSaved(compact(false));
+        return result;
+    }
+
+    /**
+     * Groups every mutation until the matching {@link #commitBatch()} into a single
+     * persisted unit of work. Batches may be nested; only the outermost commit writes.
+     * The calling thread holds all write locks (and the shared folder lock) for the whole batch.
+     */
+    public void beginBatch() {
+        if (fileManager.lockFolder()) {
+            syncWithFolder();
+        }
+        lockAll(ReentrantReadWriteLock::writeLock);
+        beginWork();
+    }
+
+    public boolean commitBatch() {
+        try {
+            boolean saved = endWork();
+            unlockAll(ReentrantReadWriteLock::writeLock);
+            return compactIfNeeded() && saved;
+        } finally {
+            fileManager.unlockFolder();
+        }
+    }
+
+    /**
+     * With a shared data folder, runs a mutation holding the folder lock, after catching up
+     * with what other instances wrote: the mutation is checked against their latest state and
+     * its records land after theirs, so concurrent desks merge instead of overwriting each other.
+     */
+    private <T> T sharedWrite(Supplier<T> mutation) {
+        if (!fileManager.lockFolder()) {
+            return mutation.get();
+        }
+
+        try {
+            syncWithFolder();
+            return mutation.get();
+        } finally {
+            fileManager.unlockFolder();
+        }
+    }
+
+    private UnitOfWork beginWork() {
+        WorkState state = workState.get();
+
+        if (state.depth++ == 0) {
+            state.work = new UnitOfWork();
+        }
+        return state.work;
+    }
+
+    private boolean endWork() {
+        WorkState state = workState.get();
+
+        if (state.depth == 0) {
+            throw new IllegalStateException("No batch in progress");
+        }
+
+        if (--state.depth > 0) {
+            return true;
+        }
+
+        UnitOfWork work = state.work;
+        state.work = null;
+
+        if (flusher != null) {
+            flusher.submit(work);
+            return true;
+        }
+        return fileManager.append(work);
+    }
+
+    private boolean store(UnitOfWork work) {
+        boolean appended = fileManager.append(work);
+        boolean compacted = compact(false);
+        return appended || compacted;
+    }
+
+    /**
+     * Rewrites the data files once the journal is due for compaction. Runs after the mutation
+     * released its locks, since the snapshot needs all three sets; inside a batch it waits
+     * for the outermost commit. With write-behind the flusher compacts instead.
+     */
+    private boolean compactIfNeeded() {
+        if (flusher != null || workState.get().depth > 0) {
+            return true;
+        }
+        return compact(false);
+    }
+
+    /**
+     * @param all fold in every journaled change, not only once the journal is due, e.g. before
+     *            the data files are published to a cloud folder
+     */
+    private boolean compact(boolean all) {
+        // With a shared folder the snapshot must include what other instances journaled,
+        // since compacting empties the journal for everyone.
+        return sharedWrite(() -> {
+            if (!(all ? fileManager.hasPendingChanges() : fileManager.needsCompaction())) {
+                return true;
+            }
+
+            // Checkouts reserve stock under the book read lock, so the book write lock is what keeps
+            // a reserved copy and its loan from landing on different sides of the snapshot.
+            userLock.readLock().lock();
+            bookLock.writeLock().lock();
+            loanLock.readLock().lock();
+            try {
+                return fileManager.compact(() -> new ArrayList<>(users), () -> new ArrayList<>(books),
+                        () -> new ArrayList<>(loans));
+            } finally {
+                loanLock.readLock().unlock();
+                bookLock.writeLock().unlock();
+                userLock.readLock().unlock();
+            }
+        });
+    }
+
+    private void lockAll(Function<ReentrantReadWriteLock, Lock> mode) {
+        mode.apply(userLock).lock();
+        mode.apply(bookLock).lock();
+        mode.apply(loanLock).lock();
+    }
+
+    private void unlockAll(Function<ReentrantReadWriteLock, Lock> mode) {
+        mode.apply(loanLock).unlock();
+        mode.apply(bookLock).unlock();
+        mode.apply(userLock).unlock();
+    }
+
+    /**
+     * Saves any changes still waiting for the write-behind flusher, publishes the staging copy
+     * when staging is active and releases the journal.
+     */
+    public boolean close() {
+        boolean saved = flusher == null ? compact(false) : flusher.close();
+        return fileManager.close() && saved;
     }
 
     private void loadData() {
-        users = fileManager.loadUsers();
-        books = fileManager.loadBooks();
-        loans = fileManager.loadLoans();
+        CompletableFuture<List<User>> loadedUsers = CompletableFuture.supplyAsync(fileManager::loadUsers);
+        CompletableFuture<List<Book>> loadedBooks = CompletableFuture.supplyAsync(fileManager::loadBooks);
+        CompletableFuture<List<Loan>> loadedLoans = CompletableFuture.supplyAsync(fileManager::loadLoans);
+
+        users = loadedUsers.join();
+        books = loadedBooks.join();
+        loans = loadedLoans.join();
+        rebuildIndexes();
+    }
+
+    private void rebuildIndexes() {
+        rebuildUserIndexes();
+        rebuildBookIndexes();
+        rebuildLoanIndexes();
+    }
+
+    private void rebuildUserIndexes() {
+        rebuildUsersById();
+        usersByName.rebuild(users);
+    }
+
+    private void rebuildUsersById() {
+        usersById.clear();
+
+        for (User user : users) {
+            usersById.putIfAbsent(user.getId(), user);
+        }
+    }
+
+    private void rebuildBookIndexes() {
+        rebuildBooksById();
+        booksByTitle.rebuild(books);
+    }
+
+    private void rebuildBooksById() {
+        booksById.clear();
+
+        for (Book book : books) {
+            booksById.putIfAbsent(book.getId(), book);
+        }
+    }
+
+    /**
+     * Re-indexes only the entities named in journal records; rebuilding a search index for every
+     * batch from another instance would cost as much as a fresh start.
+     */
+    private void rebuildLoanIndexes() {
+        loansById.clear();
+        loansByUserId.clear();
+        loansByBookId.clear();
+        activeLoansByUserId.clear();
+        activeLoansByBookId.clear();
+        activeLoans.clear();
+
+        for (Loan loan : loans) {
+            if (loansById.putIfAbsent(loan.getId(), loan) == null) {
+                indexLoan(loan);
+            }
+        }
+    }
+
+    /**
+     * Called by the folder watcher: saves pending local changes, then catches up with the
+     * other instances.
+     */
+    private void refresh() {
+        if (flusher != null) {
+            flusher.flush();
+        }
+
+        fileManager.lockFolder();
+        try {
+            syncWithFolder();
+        } finally {
+            fileManager.unlockFolder();
+        }
     }
 
-    private void saveUsers() {
-        fileManager.saveUsers(users);
+    /**
+     * Applies journal batches other instances appended and reloads every set whose data file
+     * another instance rewrote. If another instance compacted the journal, every set is reloaded
+     * with the new journal instead, since batches this instance never read are now only in the
+     * data files. Every lock is held while the new lists are built, so readers see either the old
+     * or the new state.
+     */
+    private void syncWithFolder() {
+        lockAll(ReentrantReadWriteLock::writeLock);
+        try {
+            if (fileManager.isJournalReplaced()) {
+                System.out.println("Journal compacted by another instance, reloading all data.");
+
+                for (EntitySet set : EntitySet.values()) {
+                    if (fileManager.canReload(set)) {
+                        reload(set);
+                    }
+                }
+                return;
+            }
+
+            applyJournalRecords(fileManager.readJournalTail());
+
+            for (EntitySet set : EntitySet.values()) {
+                if (fileManager.isExternalChange(set)) {
+                    reload(set);
+                }
+            }
+        } finally {
+            unlockAll(ReentrantReadWriteLock::writeLock);
+        }
+    }
+
+    private void reload(EntitySet set) {
+        switch (set) {
+            case USERS:
+                users = fileManager.loadUsers();
+                rebuildUserIndexes();
+                break;
+            case BOOKS:
+                books = fileManager.loadBooks();
+                rebuildBookIndexes();
+                break;
+            default:
+                loans = fileManager.loadLoans();
+                rebuildLoanIndexes();
+                loanIdGenerator.seed(loans);
+                break;
+        }
+        System.out.println("Reloaded " + set.name().toLowerCase() + " changed by another instance.");
+    }
+
+    /**
+     * Applies each record to the entity it names: a put updates the loaded entity in place or
+     * appends a new one, a delete removes it. Only the entities the records touch are re-indexed,
+     * so catching up costs the size of the tail, not of the library.
+     */
+    private void applyJournalRecords(Map<EntitySet, List<String>> records) {
+        List<Loan> newLoans = new ArrayList<>();
+        int applied = 0;
+
+        applied += applyRecords(records.get(EntitySet.USERS), users, usersById,
+                UserFileMapper::fromFileLine, User::getId,
+                (existing, user) -> {
+                    existing.setName(user.getName());
+                    existing.setEmail(user.getEmail());
+                    existing.setPhone(user.getPhone());
+                    existing.setAddress(user.getAddress());
+                    existing.setBirthDate(user.getBirthDate());
+                    existing.setRegistrationDate(user.getRegistrationDate());
+                    existing.setActive(user.isActive());
+                    usersByName.update(existing);
+                },
+                usersByName::add,
+                user -> usersByName.remove(user.getId()));
+        applied += applyRecords(records.get(EntitySet.BOOKS), books, booksById,
+                BookFileMapper::fromFileLine, Book::getId,
+                (existing, book) -> {
+                    existing.setTitle(book.getTitle());
+                    existing.setAuthor(book.getAuthor());
+                    existing.setIsbn(book.getIsbn());
+                    existing.setStock(book.getStock());
+                    existing.setAvailableStock(book.getAvailableStock());
+                    booksByTitle.update(existing);
+                },
+                booksByTitle::add,
+                book -> booksByTitle.remove(book.getId()));
+        applied += applyRecords(records.get(EntitySet.LOANS), loans, loansById,
+                LoanFileMapper::fromFileLine, Loan::getId,
+                (existing, loan) -> {
+                    unindexLoan(existing);
+                    existing.setUserId(loan.getUserId());
+                    existing.setBookId(loan.getBookId());
+                    existing.setLoanDate(loan.getLoanDate());
+                    existing.setReturnDate(loan.getReturnDate());
+                    existing.setActive(loan.isActive());
+                    indexLoan(existing);
+                },
+                loan -> {
+                    indexLoan(loan);
+                    newLoans.add(loan);
+                },
+                this::unindexLoan);
+
+        if (!newLoans.isEmpty()) {
+            loanIdGenerator.seed(newLoans);
+        }
+        if (applied > 0) {
+            System.out.println("Applied " + applied + " journal records written by another instance.");
+        }
+    }
+
+    private <T> int applyRecords(List<String> records, List<T> entities, Map<String, T> byId,
+                                 Function<String, T> parser, Function<T, String> idOf,
+                                 BiConsumer<T, T> update, Consumer<T> added, Consumer<T> removed) {
+        int applied = 0;
+
+        for (String record : records) {
+            int separator = record.indexOf('|');
+            String type = record.substring(0, Math.max(0, separator));
+            String payload = record.substring(separator + 1);
+
+            if (UnitOfWork.PUT.equals(type)) {
+                T entity = parser.apply(payload);
+
+                if (entity == null) {
+                    System.out.println("Warning: Invalid journal record: " + record);
+                    continue;
+                }
+
+                T existing = byId.get(idOf.apply(entity));
+
+                if (existing != null) {
+                    update.accept(existing, entity);
+                } else {
+                    entities.add(entity);
+                    byId.put(idOf.apply(entity), entity);
+                    added.accept(entity);
+                }
+            } else if (UnitOfWork.DELETE.equals(type) && !payload.isEmpty()) {
+                T existing = byId.remove(payload);
+
+                if (existing != null) {
+                    entities.remove(existing);
+                    removed.accept(existing);
+                }
+            } else {
+                System.out.println("Warning: Invalid journal record: " + record);
+                continue;
+            }
+            applied++;
+        }
+        return applied;
+    }
+
+    private void indexLoan(Loan loan) {
+        loansByUserId.computeIfAbsent(loan.getUserId(), k -> new ArrayList<>()).add(loan);
+        loansByBookId.computeIfAbsent(loan.getBookId(), k -> new ArrayList<>()).add(loan);
+
+        if (loan.isActive()) {
+            activeLoansByUserId.merge(loan.getUserId(), 1, Integer::sum);
+            activeLoansByBookId.merge(loan.getBookId(), 1, Integer::sum);
+            activeLoans.add(loan);
+        }
+    }
+
+    private void unindexLoan(Loan loan) {
+        removeFromGroup(loansByUserId, loan.getUserId(), loan);
+        removeFromGroup(loansByBookId, loan.getBookId(), loan);
+
+        if (loan.isActive()) {
+            decrementActiveCount(activeLoansByUserId, loan.getUserId());
+            decrementActiveCount(activeLoansByBookId, loan.getBookId());
+            activeLoans.remove(loan);
+        }
     }
 
-    private void saveBooks() {
-        fileManager.saveBooks(books);
+    private void removeFromGroup(Map<String, List<Loan>> groups, String key, Loan loan) {
+        groups.computeIfPresent(key, (k, group) -> {
+            group.remove(loan);
+            return group.isEmpty() ? null : group;
+        });
     }
 
-    private void saveLoans() {
-        fileManager.saveLoans(loans);
+    private void decrementActiveCount(Map<String, Integer> counts, String key) {
+        counts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
     }
 }
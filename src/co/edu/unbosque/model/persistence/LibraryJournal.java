@@ -0,0 +1,618 @@
+package co.edu.unbosque.model.persistence;
+
+import co.edu.unbosque.model.persistence.UnitOfWork.EntitySet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Append-only commit log shared by users, books and loans (library.journal).
+ * Each committed unit of work is written as its records ("U|P|<user line>", "B|D|<id>", ...)
+ * followed by a "C|<count>|<sequence>" marker, in a single write and a single sync. On replay only
+ * batches closed by their marker are applied, so a crash mid-write never leaves half an operation behind.
+ * <p>
+ * Every emptied journal starts with a "G|<generation>" line holding a new random id, so another
+ * instance sharing the folder can tell that the journal was compacted even if it has grown past
+ * the point that instance had read. When the data files are rewritten, the generation of the journal
+ * and the sequence number of its last batch are saved in library.checkpoint before the journal is
+ * emptied. Batches up to the checkpoint are skipped on replay only while the journal still has the
+ * same generation, so a crash between the two steps does not apply them twice, and a checkpoint
+ * copied from elsewhere (e.g. by a cloud pull) never hides batches of a different journal. Markers
+ * without a sequence and journals without a generation line (older versions) are handled as before.
+ */
+public class LibraryJournal {
+
+    private static final String COMMIT = "C";
+    private static final String DELIMITER = "|";
+    private static final String GENERATION = "G";
+    private static final String SEQUENCE_KEY = "sequence";
+    private static final String GENERATION_KEY = "generation";
+    private static final int MAX_HEADER_SIZE = 128;
+
+    private final File file;
+    private final File checkpointFile;
+    private final boolean syncOnCommit;
+    private FileChannel channel;
+    private boolean needsNewline;
+    private int recordCount;
+    private long committedOffset;
+    private long lastSequence;
+    private long checkpoint;
+    private String checkpointGeneration = "";
+    private long checkpointModified;
+    private String generation;
+    private final Set<EntitySet> pendingSets = EnumSet.noneOf(EntitySet.class);
+
+    public LibraryJournal(String dataDirectory, boolean syncOnCommit) {
+        this.file = new File(dataDirectory + "library.journal");
+        this.checkpointFile = new File(dataDirectory + "library.checkpoint");
+        this.syncOnCommit = syncOnCommit;
+    }
+
+    public synchronized boolean append(UnitOfWork work) {
+        if (work.isEmpty()) {
+            return true;
+        }
+
+        List<String> records = work.toJournalRecords();
+        StringBuilder batch = new StringBuilder();
+
+        // Another instance may have compacted since; numbering must continue after its checkpoint.
+        if (checkpointFile.lastModified() != checkpointModified) {
+            loadCheckpoint();
+        }
+
+        long sequence = lastSequence + 1;
+
+        try {
+            FileChannel out = openChannel();
+            long end = out.size();
+
+            // Another instance sharing the folder may have appended since our last write.
+            if (out.position() != end) {
+                out.position(end);
+                needsNewline = !endsWithNewline(out);
+            }
+
+            // A journal replaced by another instance has to be read from the start before the
+            // batches appended here count as read.
+            boolean caughtUp = end == committedOffset && readGeneration().equals(generation);
+
+            if (end == 0) {
+                generation = newGeneration();
+                batch.append(GENERATION).append(DELIMITER).append(generation).append('\n');
+                caughtUp = true;
+            } else if (needsNewline) {
+                batch.append('\n');
+            }
+
+            for (String record : records) {
+                batch.append(record).append('\n');
+            }
+            batch.append(COMMIT).append(DELIMITER).append(records.size())
+                 .append(DELIMITER).append(sequence).append('\n');
+
+            ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+
+            if (syncOnCommit) {
+                out.force(false);
+            }
+            needsNewline = false;
+            lastSequence = sequence;
+
+            if (caughtUp) {
+                committedOffset = out.position();
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing journal " + file.getPath() + ": " + e.getMessage());
+            return false;
+        }
+
+        recordCount += records.size();
+        pendingSets.addAll(work.getDirtySets());
+        return true;
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            needsNewline = !endsWithNewline(channel);
+        }
+        return channel;
+    }
+
+    private static boolean endsWithNewline(FileChannel in) throws IOException {
+        long size = in.size();
+
+        if (size == 0) {
+            return true;
+        }
+
+        ByteBuffer last = ByteBuffer.allocate(1);
+        in.read(last, size - 1);
+        return last.get(0) == '\n';
+    }
+
+    /**
+     * Reads the committed records for every entity set, in commit order, without the set prefix.
+     */
+    public synchronized Map<EntitySet, List<String>> readCommitted() {
+        Map<EntitySet, List<String>> committed = emptyRecords();
+
+        recordCount = 0;
+        pendingSets.clear();
+        committedOffset = 0;
+        generation = readGeneration();
+        loadCheckpoint();
+
+        if (!file.exists()) {
+            return committed;
+        }
+
+        int[] discarded = new int[1];
+        int[] skipped = new int[1];
+
+        try {
+            committedOffset = scan(0, Long.MAX_VALUE, committed, discarded, skipped);
+        } catch (IOException e) {
+            System.out.println("Error replaying journal " + file.getPath() + ": " + e.getMessage());
+        }
+
+        if (discarded[0] > 0) {
+            System.out.println("Warning: Discarded " + discarded[0] + " uncommitted journal records from "
+                    + file.getName() + ".");
+        }
+
+        if (skipped[0] > 0) {
+            System.out.println("Skipped " + skipped[0] + " journal records already saved at checkpoint "
+                    + checkpoint + ".");
+        }
+
+        countRecords(committed);
+
+        if (recordCount > 0) {
+            System.out.println("Found " + recordCount + " committed journal records in " + file.getName() + ".");
+        }
+
+        return committed;
+    }
+
+    /**
+     * True when the journal on disk has a different generation from the one this instance last
+     * read or wrote: another instance compacted it, so the data files hold batches that were
+     * never read here and everything has to be loaded again.
+     */
+    public synchronized boolean isReplaced() {
+        return generation != null && !readGeneration().equals(generation);
+    }
+
+    /**
+     * Reads the batches committed after the last one this journal read or wrote, e.g. by another
+     * instance sharing the folder. A batch still being written is left for the next call. If the
+     * journal was replaced (see {@link #isReplaced}), it is read again from the start.
+     */
+    public synchronized Map<EntitySet, List<String>> readAppended() {
+        Map<EntitySet, List<String>> committed = emptyRecords();
+        String current = readGeneration();
+
+        if (!current.equals(generation)) {
+            // What was counted before is in the data files the other instance wrote.
+            generation = current;
+            committedOffset = 0;
+            recordCount = 0;
+            pendingSets.clear();
+            loadCheckpoint();
+        }
+
+        long size = file.length();
+
+        if (size == committedOffset) {
+            return committed;
+        }
+
+        try {
+            committedOffset = scan(committedOffset, Long.MAX_VALUE, committed, new int[1], new int[1]);
+        } catch (IOException e) {
+            System.out.println("Error reading journal " + file.getPath() + ": " + e.getMessage());
+        }
+
+        countRecords(committed);
+        return committed;
+    }
+
+    /**
+     * Committed records of one set up to the last batch already read, without changing what
+     * counts as read.
+     */
+    public synchronized List<String> readCommitted(EntitySet set) {
+        Map<EntitySet, List<String>> committed = emptyRecords();
+
+        if (file.exists() && committedOffset > 0) {
+            try {
+                scan(0, committedOffset, committed, new int[1], new int[1]);
+            } catch (IOException e) {
+                System.out.println("Error replaying journal " + file.getPath() + ": " + e.getMessage());
+            }
+        }
+        return committed.get(set);
+    }
+
+    private static Map<EntitySet, List<String>> emptyRecords() {
+        Map<EntitySet, List<String>> committed = new EnumMap<>(EntitySet.class);
+
+        for (EntitySet set : EntitySet.values()) {
+            committed.put(set, new ArrayList<>());
+        }
+        return committed;
+    }
+
+    private void countRecords(Map<EntitySet, List<String>> committed) {
+        committed.forEach((set, records) -> {
+            if (!records.isEmpty()) {
+                recordCount += records.size();
+                pendingSets.add(set);
+            }
+        });
+    }
+
+    /**
+     * Reads complete lines from the given byte offset and applies every batch closed by its
+     * marker and not covered by the checkpoint. Works on bytes so the returned offset (just past
+     * the last marker) is exact.
+     */
+    private long scan(long from, long limit, Map<EntitySet, List<String>> committed,
+                      int[] discarded, int[] skipped) throws IOException {
+        List<String> batch = new ArrayList<>();
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        byte[] buffer = new byte[64 * 1024];
+        long position = from;
+        long lastCommit = from;
+        boolean checkpointed = checkpointGeneration.equals(generation);
+
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            in.position(from);
+            InputStream input = Channels.newInputStream(in);
+            int read;
+
+            while (position < limit && (read = input.read(buffer)) > 0) {
+                int start = 0;
+
+                for (int i = 0; i < read && position < limit; i++) {
+                    position++;
+
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+
+                    line.write(buffer, start, i - start);
+                    start = i + 1;
+                    String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+                    line.reset();
+
+                    if (text.isEmpty()) {
+                        continue;
+                    }
+
+                    if (text.startsWith(GENERATION + DELIMITER)) {
+                        checkpointed = checkpointGeneration.equals(text.substring(GENERATION.length() + DELIMITER.length()));
+                        lastCommit = position;
+                        continue;
+                    }
+
+                    if (text.startsWith(COMMIT + DELIMITER)) {
+                        long[] marker = parseMarker(text);
+                        int count = (int) marker[0];
+                        long sequence = marker[1];
+
+                        if (count < 0 || count > batch.size()) {
+                            discarded[0] += batch.size();
+                        } else if (checkpointed && sequence >= 0 && sequence <= checkpoint) {
+                            discarded[0] += batch.size() - count;
+                            skipped[0] += count;
+                        } else {
+                            discarded[0] += batch.size() - count;
+                            applyBatch(batch.subList(batch.size() - count, batch.size()), committed);
+                        }
+                        lastSequence = Math.max(lastSequence, sequence);
+                        batch.clear();
+                        lastCommit = position;
+                    } else {
+                        batch.add(text);
+                    }
+                }
+
+                if (position < limit) {
+                    line.write(buffer, start, read - start);
+                }
+            }
+        }
+
+        discarded[0] += batch.size();
+        return lastCommit;
+    }
+
+    private void applyBatch(List<String> batch, Map<EntitySet, List<String>> committed) {
+        for (String record : batch) {
+            int separator = record.indexOf(DELIMITER);
+            EntitySet set = separator > 0 ? EntitySet.fromCode(record.substring(0, separator)) : null;
+
+            if (set == null) {
+                System.out.println("Warning: Invalid journal record: " + record);
+                continue;
+            }
+
+            committed.get(set).add(record.substring(separator + 1));
+        }
+    }
+
+    /**
+     * Returns the record count and sequence number of a "C|<count>|<sequence>" marker. The count is
+     * -1 if it cannot be read and the sequence is -1 for a marker written without one.
+     */
+    private long[] parseMarker(String line) {
+        String[] fields = line.substring(COMMIT.length() + DELIMITER.length()).split("\\" + DELIMITER, -1);
+
+        try {
+            long count = Integer.parseInt(fields[0]);
+            long sequence = fields.length > 1 ? Long.parseLong(fields[1]) : -1;
+            return new long[] {count, sequence};
+        } catch (NumberFormatException e) {
+            return new long[] {-1, -1};
+        }
+    }
+
+    private void loadCheckpoint() {
+        checkpointModified = checkpointFile.lastModified();
+
+        if (!checkpointFile.exists()) {
+            return;
+        }
+
+        Properties properties = new Properties();
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(checkpointFile), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            checkpoint = Long.parseLong(properties.getProperty(SEQUENCE_KEY, "0"));
+            checkpointGeneration = properties.getProperty(GENERATION_KEY, "");
+            lastSequence = Math.max(lastSequence, checkpoint);
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Warning: Could not read " + checkpointFile.getPath() + ", replaying the whole journal: "
+                    + e.getMessage());
+            checkpoint = 0;
+            checkpointGeneration = "";
+        }
+    }
+
+    /**
+     * The id on the "G|" first line of the journal, or "" for a missing or empty journal and
+     * one written by an older version.
+     */
+    private String readGeneration() {
+        if (!file.exists()) {
+            return "";
+        }
+
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(MAX_HEADER_SIZE);
+
+            while (header.hasRemaining() && in.read(header) > 0) {
+                // Until the header is complete or the file ends.
+            }
+
+            String text = new String(header.array(), 0, header.position(), StandardCharsets.UTF_8);
+            int end = text.indexOf('\n');
+
+            if (end < 0 || !text.startsWith(GENERATION + DELIMITER)) {
+                return "";
+            }
+            return text.substring(GENERATION.length() + DELIMITER.length(), end);
+        } catch (IOException e) {
+            System.out.println("Error reading journal " + file.getPath() + ": " + e.getMessage());
+            return generation != null ? generation : "";
+        }
+    }
+
+    private static String newGeneration() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Called once the data files hold every batch written so far: saves the checkpoint, then
+     * empties the journal. If the journal cannot be emptied, its batches are skipped on replay.
+     */
+    public synchronized boolean checkpoint() {
+        String covered = readGeneration();
+
+        if (lastSequence > checkpoint || !covered.equals(checkpointGeneration)) {
+            Properties properties = new Properties();
+            properties.setProperty(GENERATION_KEY, covered);
+            properties.setProperty(SEQUENCE_KEY, Long.toString(lastSequence));
+
+            try {
+                AtomicFile.write(checkpointFile, temp -> {
+                    try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                        properties.store(writer, "LibraryApp journal checkpoint");
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println("Error saving checkpoint " + checkpointFile.getPath() + ": " + e.getMessage());
+                return false;
+            }
+
+            checkpoint = lastSequence;
+            checkpointGeneration = covered;
+            checkpointModified = checkpointFile.lastModified();
+        }
+        return clear();
+    }
+
+    /**
+     * Whether a journal file holds anything besides its "G|" first line.
+     */
+    public static boolean hasRecords(File file) {
+        long length = file.length();
+
+        if (length == 0) {
+            return false;
+        }
+        if (length > MAX_HEADER_SIZE) {
+            return true;
+        }
+
+        try {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            return !text.startsWith(GENERATION + DELIMITER) || text.indexOf('\n') != text.length() - 1;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Applies "P|<file line>" / "D|<id>" records on top of a snapshot, keeping snapshot order
+     * and appending new records at the end.
+     */
+    public static <T> List<T> replay(List<T> snapshot, List<String> records,
+                                     Function<T, String> idOf, Function<String, T> parser) {
+        if (records.isEmpty()) {
+            return snapshot;
+        }
+
+        List<T> result = new ArrayList<>(snapshot);
+        Map<String, Integer> positions = new HashMap<>();
+
+        for (int i = 0; i < result.size(); i++) {
+            positions.put(idOf.apply(result.get(i)), i);
+        }
+
+        for (String record : records) {
+            if (!applyRecord(record, result, positions, idOf, parser)) {
+                System.out.println("Warning: Invalid journal record: " + record);
+            }
+        }
+
+        result.removeIf(Objects::isNull);
+        return result;
+    }
+
+    private static <T> boolean applyRecord(String record, List<T> records, Map<String, Integer> positions,
+                                           Function<T, String> idOf, Function<String, T> parser) {
+        int separator = record.indexOf(DELIMITER);
+
+        if (separator <= 0) {
+            return false;
+        }
+
+        String type = record.substring(0, separator);
+        String payload = record.substring(separator + 1);
+
+        if (UnitOfWork.PUT.equals(type)) {
+            T entity = parser.apply(payload);
+
+            if (entity == null) {
+                return false;
+            }
+
+            String id = idOf.apply(entity);
+            Integer position = positions.get(id);
+
+            if (position != null) {
+                records.set(position, entity);
+            } else {
+                positions.put(id, records.size());
+                records.add(entity);
+            }
+            return true;
+        }
+
+        if (UnitOfWork.DELETE.equals(type) && !payload.isEmpty()) {
+            Integer position = positions.remove(payload);
+
+            if (position != null) {
+                records.set(position, null);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    public synchronized int size() {
+        return recordCount;
+    }
+
+    public synchronized Set<EntitySet> getPendingSets() {
+        return EnumSet.copyOf(pendingSets);
+    }
+
+    /**
+     * Empties the journal and starts a new generation.
+     */
+    public synchronized boolean clear() {
+        recordCount = 0;
+        pendingSets.clear();
+        committedOffset = 0;
+
+        if ((channel == null || !channel.isOpen()) && !file.exists()) {
+            generation = "";
+            return true;
+        }
+
+        generation = newGeneration();
+        ByteBuffer header = ByteBuffer.wrap((GENERATION + DELIMITER + generation + "\n").getBytes(StandardCharsets.UTF_8));
+
+        try {
+            FileChannel out = openChannel();
+            out.truncate(0);
+            out.position(0);
+
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+
+            if (syncOnCommit) {
+                out.force(false);
+            }
+            needsNewline = false;
+            committedOffset = out.position();
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error clearing journal " + file.getPath() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing journal " + file.getPath() + ": " + e.getMessage());
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,34 @@
+package co.edu.unbosque.model.persistence;
+
+public class LibrarySettings {
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+
+        if (value == null || value.trim().isEmpty()) {
+            value = System.getProperty(name);
+        }
+
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Warning: Invalid value for " + name + ": " + value + ". Using " + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -9,41 +9,35 @@ import java.util.List;
 public class LoanFileManager {
     
     private final String filePath;
+    private final File snapshotFile;
     private static final String DELIMITER = "|";
     
     public LoanFileManager(String dataDirectory) {
         this.filePath = dataDirectory + "loans.txt";
+        this.snapshotFile = new File(dataDirectory + "loans.bin");
     }
     
     public List<Loan> load() {
         List<Loan> loans = new ArrayList<>();
         File file = new File(filePath);
         
-        if (!file.exists()) {
+        if (!file.exists() && !snapshotFile.exists()) {
             System.out.println("Loans file not found. Starting with empty loan list.");
             return loans;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            int lineNumber = 0;
-            
-            while ((line = br.readLine()) != null) {
-                lineNumber++;
-                
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                
-                Loan loan = LoanFileMapper.fromFileLine(line);
-                
-                if (loan != null) {
-                    loans.add(loan);
-                } else {
-                    System.out.println("Warning: Invalid loan data at line " + lineNumber + ": " + line);
-                }
+        if (BinarySnapshot.isCurrent(snapshotFile, file)) {
+            try {
+                loans = BinarySnapshot.readLoans(snapshotFile);
+                System.out.println("Loaded " + loans.size() + " loans from binary snapshot.");
+                return loans;
+            } catch (IOException e) {
+                System.out.println("Error reading loans snapshot, falling back to text file: " + e.getMessage());
             }
-            
+        }
+
+        try {
+            loans = ParallelLineLoader.load(file, LoanFileMapper::fromFileLine, Loan::getId, "loan");
             System.out.println("Loaded " + loans.size() + " loans from file.");
             
         } catch (IOException e) {
@@ -54,16 +48,33 @@ public class LoanFileManager {
     }
 
     public boolean save(List<Loan> loans) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            for (Loan loan : loans) {
-                bw.write(LoanFileMapper.toFileLine(loan));
-                bw.newLine();
-            }
-            return true;
+        CompressedDataFile.keepPrevious(new File(filePath));
+
+        try {
+            AtomicFile.write(new File(filePath), file -> {
+                try (BufferedWriter bw = CompressedDataFile.openWriter(file)) {
+                    for (Loan loan : loans) {
+                        bw.write(LoanFileMapper.toFileLine(loan));
+                        bw.newLine();
+                    }
+                }
+            });
         } catch (IOException e) {
             System.out.println("Error saving loans: " + e.getMessage());
             return false;
         }
+        
+        return !snapshotFile.exists() || saveSnapshot(loans);
+    }
+
+    public boolean saveSnapshot(List<Loan> loans) {
+        try {
+            BinarySnapshot.writeLoans(snapshotFile, new File(filePath), loans);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error saving loans snapshot: " + e.getMessage());
+            return false;
+        }
     }
     
     public boolean exists() {
@@ -9,31 +9,33 @@ public class LoanFileMapper {
     private static final String DELIMITER = "|";
 
     public static Loan fromFileLine(String line) {
-        if (line == null || line.trim().isEmpty()) {
+        FieldTokenizer fields = new FieldTokenizer(line);
+        
+        if (fields.isBlank()) {
             return null;
         }
         
-        String[] fields = line.split("\\" + DELIMITER);
-        
-        if (fields.length != 6) {
+        if (fields.countFields() != 6) {
             return null;
         }
         
         try {
             Loan loan = new Loan();
             
-            loan.setId(fields[0]);
-            loan.setUserId(fields[1]);
-            loan.setBookId(fields[2]);
+            loan.setId(fields.nextString());
+            loan.setUserId(fields.nextString());
+            loan.setBookId(fields.nextString());
+            
+            LocalDate loanDate = fields.nextDate();
             
-            LocalDate loanDate = LocalDate.parse(fields[3]);
+            if (loanDate == null) {
+                return null;
+            }
             loan.setLoanDate(loanDate);
             
-            LocalDate returnDate = fields[4].equals("null") || fields[4].isEmpty() ? 
-                                  null : LocalDate.parse(fields[4]);
-            loan.setReturnDate(returnDate);
+            loan.setReturnDate(fields.nextDate());
             
-            loan.setActive(Boolean.parseBoolean(fields[5]));
+            loan.setActive(fields.nextBoolean());
             
             return loan;
             
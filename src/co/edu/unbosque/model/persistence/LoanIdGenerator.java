@@ -0,0 +1,21 @@
+package co.edu.unbosque.model.persistence;
+
+import co.edu.unbosque.model.Loan;
+
+import java.util.List;
+
+/**
+ * Source of new loan IDs. Implementations must be safe to call from several threads and
+ * never hand out an ID that is already used by one of the loans passed to {@link #seed}.
+ */
+public interface LoanIdGenerator {
+
+    String nextId();
+
+    /**
+     * Called with the loaded loans before the first {@link #nextId()}, and again whenever loans
+     * written by other instances sharing the data folder are loaded.
+     */
+    default void seed(List<Loan> existingLoans) {
+    }
+}
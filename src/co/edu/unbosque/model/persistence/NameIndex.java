@@ -0,0 +1,389 @@
+package co.edu.unbosque.model.persistence;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Index for searching people by name. Names and queries are folded first (accents removed,
+ * lowercased, split into words), so "perez" finds "Pérez" and "Nuñez" finds "Nunez". The words
+ * are kept in a sorted map, so the entities with a word starting with a query word are one range
+ * lookup away; every query word has to start one of the words of the name. Queries of three or
+ * more characters also find names that contain them in the middle of a word, through a
+ * {@link TrigramIndex} over the folded names.
+ * <p>
+ * Results are ranked: the same name first, then names having every query word as a whole word,
+ * then names starting with the query, then the other word-prefix matches and last the matches in
+ * the middle of a word. Ties keep the order entities were added in. Not thread-safe: callers
+ * guard it like the list it indexes.
+ */
+public class NameIndex<T> implements SearchIndex<T> {
+
+    private static final int MIN_COMPACT_SIZE = 1024;
+    private static final int SAME_NAME = 0;
+    private static final int WHOLE_WORDS = 1;
+    private static final int NAME_PREFIX = 2;
+    private static final int WORD_PREFIXES = 3;
+    private static final int INSIDE_WORD = 4;
+    private static final int NO_MATCH = 0;
+    private static final int PREFIX_OF_WORD = 1;
+    private static final int WHOLE_WORD = 2;
+    private static final char[] FOLDED = foldTable();
+
+    private final Function<T, String> idOf;
+    private final Function<T, String> nameOf;
+    private final Map<String, Integer> documents = new HashMap<>();
+    private final List<T> entities = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final TreeMap<String, PostingList> postings = new TreeMap<>();
+    private final TrigramIndex<T> insideWords;
+    private int removed;
+
+    public NameIndex(Function<T, String> idOf, Function<T, String> nameOf) {
+        this.idOf = idOf;
+        this.nameOf = nameOf;
+        // Reads the folded name stored for the entity, so each name is folded once.
+        this.insideWords = new TrigramIndex<>(idOf, entity -> names.get(documents.get(idOf.apply(entity))));
+    }
+
+    @Override
+    public void rebuild(Collection<T> all) {
+        documents.clear();
+        entities.clear();
+        names.clear();
+        postings.clear();
+        removed = 0;
+
+        for (T entity : all) {
+            indexWords(entity);
+        }
+        insideWords.rebuild(all);
+    }
+
+    /**
+     * Indexes a new entity. An id that is already indexed keeps its first entity, like the id maps.
+     */
+    @Override
+    public void add(T entity) {
+        if (indexWords(entity)) {
+            insideWords.add(entity);
+        }
+    }
+
+    /**
+     * Gives the entity the next document number and indexes the words of its name; false if
+     * its id is already indexed.
+     */
+    private boolean indexWords(T entity) {
+        String id = idOf.apply(entity);
+
+        if (documents.containsKey(id)) {
+            return false;
+        }
+
+        int document = entities.size();
+        String[] nameWords = words(nameOf.apply(entity));
+        documents.put(id, document);
+        entities.add(entity);
+        names.add(String.join(" ", nameWords));
+
+        // Document numbers only grow, so appending keeps each posting list sorted.
+        for (String word : nameWords) {
+            PostingList list = postings.computeIfAbsent(word, key -> new PostingList());
+
+            if (list.size == 0 || list.ids[list.size - 1] != document) {
+                list.append(document);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Re-indexes an entity whose name may have changed, keeping its place in the results.
+     */
+    @Override
+    public void update(T entity) {
+        Integer document = documents.get(idOf.apply(entity));
+
+        if (document == null) {
+            add(entity);
+            return;
+        }
+
+        String oldName = names.get(document);
+        String newName = String.join(" ", words(nameOf.apply(entity)));
+        entities.set(document, entity);
+
+        if (oldName.equals(newName)) {
+            insideWords.update(entity);
+            return;
+        }
+
+        Set<String> oldSet = new HashSet<>(Arrays.asList(oldName.split(" ")));
+        Set<String> newSet = new HashSet<>(Arrays.asList(newName.split(" ")));
+
+        for (String word : oldSet) {
+            if (!newSet.contains(word)) {
+                removePosting(word, document);
+            }
+        }
+        for (String word : newSet) {
+            if (!oldSet.contains(word)) {
+                postings.computeIfAbsent(word, key -> new PostingList()).insert(document);
+            }
+        }
+        names.set(document, newName);
+        insideWords.update(entity);
+    }
+
+    @Override
+    public void remove(String id) {
+        Integer document = documents.remove(id);
+
+        if (document == null) {
+            return;
+        }
+
+        for (String word : new HashSet<>(Arrays.asList(names.get(document).split(" ")))) {
+            removePosting(word, document);
+        }
+        entities.set(document, null);
+        names.set(document, null);
+        insideWords.remove(id);
+        removed++;
+
+        // Renumber once most document numbers belong to removed entities.
+        if (removed > MIN_COMPACT_SIZE && removed > entities.size() / 2) {
+            List<T> live = new ArrayList<>(documents.size());
+
+            for (T entity : entities) {
+                if (entity != null) {
+                    live.add(entity);
+                }
+            }
+            rebuild(live);
+        }
+    }
+
+    /**
+     * A blank query matches everyone, as the old scan with contains did.
+     */
+    @Override
+    public List<T> search(String query) {
+        List<T> results = new ArrayList<>();
+        String[] queryWords = words(query);
+
+        if (queryWords.length == 0) {
+            if (query == null || query.trim().isEmpty()) {
+                for (T entity : entities) {
+                    if (entity != null) {
+                        results.add(entity);
+                    }
+                }
+            }
+            return results;
+        }
+
+        String folded = String.join(" ", queryWords);
+        String longest = queryWords[0];
+
+        for (String word : queryWords) {
+            if (word.length() > longest.length()) {
+                longest = word;
+            }
+        }
+
+        // Candidates come from the words starting with the longest query word, usually the
+        // fewest; the other query words are checked against each candidate's own words.
+        int[] candidates = new int[16];
+        int count = 0;
+
+        for (PostingList list : postings.subMap(longest, longest + Character.MAX_VALUE).values()) {
+            if (count + list.size > candidates.length) {
+                candidates = Arrays.copyOf(candidates, Math.max(count + list.size, candidates.length * 2));
+            }
+            System.arraycopy(list.ids, 0, candidates, count, list.size);
+            count += list.size;
+        }
+        Arrays.sort(candidates, 0, count);
+
+        // Rank in the high half, document number in the low half, so sorting orders the results.
+        long[] order = new long[count];
+        int[] matched = new int[count];
+        int matchCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            int document = candidates[i];
+
+            if (i > 0 && document == candidates[i - 1]) {
+                continue;
+            }
+
+            int rank = rank(names.get(document), queryWords, folded);
+
+            if (rank >= 0) {
+                order[matchCount] = ((long) rank << 32) | document;
+                matched[matchCount++] = document;
+            }
+        }
+
+        int orderCount = matchCount;
+
+        if (folded.length() >= 3) {
+            for (T entity : insideWords.search(folded)) {
+                int document = documents.get(idOf.apply(entity));
+
+                if (Arrays.binarySearch(matched, 0, matchCount, document) < 0) {
+                    if (orderCount == order.length) {
+                        order = Arrays.copyOf(order, Math.max(16, order.length * 2));
+                    }
+                    order[orderCount++] = ((long) INSIDE_WORD << 32) | document;
+                }
+            }
+        }
+        Arrays.sort(order, 0, orderCount);
+
+        for (int i = 0; i < orderCount; i++) {
+            results.add(entities.get((int) order[i]));
+        }
+        return results;
+    }
+
+    /**
+     * Lowercase with accents and other combining marks removed.
+     */
+    public static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        char[] folded = new char[text.length()];
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c >= FOLDED.length || FOLDED[c] == 0) {
+                return foldSlowly(text);
+            }
+            folded[i] = FOLDED[c];
+        }
+        return new String(folded);
+    }
+
+    private static String foldSlowly(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                folded.append(c);
+            }
+        }
+        return folded.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The Latin letters a library in a Spanish-speaking country mostly sees, folded ahead of time
+     * since normalizing every name costs more than the rest of indexing it. Zero means the
+     * character does not fold to a single one and takes the slow path.
+     */
+    private static char[] foldTable() {
+        char[] table = new char[0x250];
+
+        for (char c = 1; c < table.length; c++) {
+            String folded = foldSlowly(String.valueOf(c));
+
+            if (folded.length() == 1) {
+                table[c] = folded.charAt(0);
+            }
+        }
+        return table;
+    }
+
+    private static String[] words(String text) {
+        String folded = fold(text);
+        List<String> result = new ArrayList<>(4);
+        int start = -1;
+
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                result.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private static int rank(String name, String[] queryWords, String folded) {
+        boolean wholeWords = true;
+
+        for (String queryWord : queryWords) {
+            int match = matchWord(name, queryWord);
+
+            if (match == NO_MATCH) {
+                return -1;
+            }
+            wholeWords &= match == WHOLE_WORD;
+        }
+
+        if (name.equals(folded)) {
+            return SAME_NAME;
+        }
+        if (wholeWords) {
+            return WHOLE_WORDS;
+        }
+        return name.startsWith(folded) ? NAME_PREFIX : WORD_PREFIXES;
+    }
+
+    /**
+     * Whether a word of the folded name, whose words are joined by single spaces, is the query
+     * word or starts with it.
+     */
+    private static int matchWord(String name, String queryWord) {
+        int match = NO_MATCH;
+        int from = 0;
+        int at;
+
+        while ((at = name.indexOf(queryWord, from)) >= 0) {
+            if (at == 0 || name.charAt(at - 1) == ' ') {
+                int end = at + queryWord.length();
+
+                if (end == name.length() || name.charAt(end) == ' ') {
+                    return WHOLE_WORD;
+                }
+                match = PREFIX_OF_WORD;
+            }
+            from = at + 1;
+        }
+        return match;
+    }
+
+    private void removePosting(String word, int document) {
+        PostingList list = postings.get(word);
+
+        if (list == null) {
+            return;
+        }
+
+        list.remove(document);
+
+        if (list.size == 0) {
+            postings.remove(word);
+        }
+    }
+}
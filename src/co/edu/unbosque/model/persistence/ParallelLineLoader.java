@@ -0,0 +1,408 @@
+package co.edu.unbosque.model.persistence;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Loads a line-per-record data file by cutting it into newline-aligned chunks and parsing the
+ * chunks in parallel on the common fork-join pool. Each task reads its chunk with positional
+ * reads into a small window rather than mapping the file, since a mapping outlives the channel
+ * and on Windows would keep the next save from replacing the file. A compressed file
+ * (see {@link CompressedDataFile}) is split at its blocks instead, and each block is checked
+ * and inflated by the task that parses it. A damaged block is reported once and skipped, and
+ * its records are taken from the previous copy of the file when there is one.
+ * Results are merged back in file order, so callers see the same list a sequential read gives.
+ */
+public class ParallelLineLoader {
+
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    private static final long MAX_CHUNK_SIZE = 1L << 28;
+    private static final int BOUNDARY_SCAN_SIZE = 8192;
+    private static final int WINDOW_SIZE = 1 << 16;
+    private static final int MAX_WARNINGS = 20;
+
+    private ParallelLineLoader() {
+    }
+
+    public static <T> List<T> load(File file, Function<String, T> parser, Function<T, String> idOf,
+                                   String recordName) throws IOException {
+        return load(file, parser, idOf, recordName, true);
+    }
+
+    private static <T> List<T> load(File file, Function<String, T> parser, Function<T, String> idOf,
+                                    String recordName, boolean recover) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size == 0) {
+                return new ArrayList<>();
+            }
+
+            Charset charset = Charset.defaultCharset();
+
+            if (CompressedDataFile.isCompressed(file)) {
+                List<CompressedDataFile.Block> blocks = CompressedDataFile.findBlocks(channel);
+
+                if (blocks == null) {
+                    return loadSequentially(file, parser, recordName);
+                }
+
+                List<Chunk<T>> parsed = blocks.parallelStream()
+                        .map(block -> parseBlock(channel, block, parser, charset))
+                        .collect(Collectors.toList());
+
+                if (blocks.isEmpty() || !blocks.get(blocks.size() - 1).isEndMarker()) {
+                    System.out.println("Warning: " + file.getName() + " is incomplete, loading the blocks that are intact.");
+                }
+                return mergeBlocks(file, parsed, parser, idOf, recordName, recover);
+            }
+
+            List<long[]> chunks = split(channel, size);
+            List<Chunk<T>> parsed;
+
+            try {
+                parsed = chunks.parallelStream()
+                        .map(range -> parseRange(channel, range[0], range[1], parser, charset))
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            return merge(parsed, recordName);
+        }
+    }
+
+    private static <T> Chunk<T> parseBlock(FileChannel channel, CompressedDataFile.Block block,
+                                           Function<String, T> parser, Charset charset) {
+        if (!block.damaged) {
+            try {
+                ByteBuffer text = CompressedDataFile.inflateBlock(channel, block);
+                return parseChunk(bufferInput(text), text.remaining(), parser, charset);
+            } catch (IOException e) {
+                // Reported with the other damaged blocks.
+            }
+        }
+
+        Chunk<T> chunk = new Chunk<>();
+        chunk.damagedBlock = block;
+        return chunk;
+    }
+
+    /**
+     * Merges the intact blocks and fills each run of damaged blocks with the records that sat
+     * between the same neighbours in name.previous, leaving out any record still present in an
+     * intact block. Changes made to the recovered records by the last save are lost.
+     */
+    private static <T> List<T> mergeBlocks(File file, List<Chunk<T>> chunks, Function<String, T> parser,
+                                           Function<T, String> idOf, String recordName, boolean recover) {
+        List<Chunk<T>> intact = new ArrayList<>();
+        List<Integer> gapPositions = new ArrayList<>();
+        List<String[]> gapAnchors = new ArrayList<>();
+        int position = 0;
+        String lastId = null;
+
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk<T> chunk = chunks.get(i);
+
+            if (chunk.damagedBlock == null) {
+                intact.add(chunk);
+                position += chunk.records.size();
+
+                if (!chunk.records.isEmpty()) {
+                    lastId = idOf.apply(chunk.records.get(chunk.records.size() - 1));
+                }
+                continue;
+            }
+
+            System.out.println("Warning: Block at " + chunk.damagedBlock + " of " + file.getName() + " is damaged, skipping it.");
+
+            if (i > 0 && chunks.get(i - 1).damagedBlock != null) {
+                continue;
+            }
+
+            String nextId = null;
+
+            for (int j = i + 1; j < chunks.size() && nextId == null; j++) {
+                if (chunks.get(j).damagedBlock == null && !chunks.get(j).records.isEmpty()) {
+                    nextId = idOf.apply(chunks.get(j).records.get(0));
+                }
+            }
+
+            gapPositions.add(position);
+            gapAnchors.add(new String[] {lastId, nextId});
+        }
+
+        List<T> records = merge(intact, recordName);
+
+        if (gapPositions.isEmpty() || !recover) {
+            return records;
+        }
+
+        File previousFile = CompressedDataFile.previousFile(file);
+
+        if (!previousFile.exists()) {
+            System.out.println("Warning: No " + previousFile.getName() + " to recover from; the " + recordName
+                    + " records in the damaged blocks are missing.");
+            return records;
+        }
+
+        List<T> previous;
+
+        try {
+            previous = load(previousFile, parser, idOf, recordName, false);
+        } catch (IOException e) {
+            System.out.println("Error reading " + previousFile.getPath() + ": " + e.getMessage());
+            return records;
+        }
+
+        Map<String, Integer> previousPositions = new HashMap<>();
+        Set<String> present = new HashSet<>();
+
+        for (int i = 0; i < previous.size(); i++) {
+            previousPositions.put(idOf.apply(previous.get(i)), i);
+        }
+        for (T record : records) {
+            present.add(idOf.apply(record));
+        }
+
+        int recovered = 0;
+
+        // Back to front, so earlier insert positions stay valid.
+        for (int g = gapPositions.size() - 1; g >= 0; g--) {
+            String[] anchors = gapAnchors.get(g);
+            int from = anchors[0] == null ? 0 : previousPositions.getOrDefault(anchors[0], previous.size() - 1) + 1;
+            int to = anchors[1] == null ? previous.size() : previousPositions.getOrDefault(anchors[1], previous.size());
+            List<T> gap = new ArrayList<>();
+
+            for (int i = from; i < to; i++) {
+                if (present.add(idOf.apply(previous.get(i)))) {
+                    gap.add(previous.get(i));
+                }
+            }
+
+            records.addAll(gapPositions.get(g), gap);
+            recovered += gap.size();
+        }
+
+        System.out.println("Recovered " + recovered + " " + recordName + " records from " + previousFile.getName()
+                + "; changes made to them by the last save are lost, please review them.");
+        return records;
+    }
+
+    /**
+     * A gzip file without block headers, e.g. compressed by hand.
+     */
+    private static <T> List<T> loadSequentially(File file, Function<String, T> parser,
+                                                String recordName) throws IOException {
+        Chunk<T> chunk = new Chunk<>();
+
+        try (BufferedReader reader = CompressedDataFile.openReader(file)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                parseLine(line, parser, chunk);
+            }
+        }
+
+        return merge(Collections.singletonList(chunk), recordName);
+    }
+
+    private static <T> Chunk<T> parseRange(FileChannel channel, long start, long end,
+                                           Function<String, T> parser, Charset charset) {
+        long[] position = {start};
+
+        try {
+            return parseChunk((window, offset, length) -> {
+                if (position[0] >= end) {
+                    return -1;
+                }
+
+                int read = channel.read(ByteBuffer.wrap(window, offset, (int) Math.min(length, end - position[0])),
+                        position[0]);
+
+                if (read > 0) {
+                    position[0] += read;
+                }
+                return read;
+            }, end - start, parser, charset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ChunkInput bufferInput(ByteBuffer buffer) {
+        return (window, offset, length) -> {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(window, offset, read);
+            return read;
+        };
+    }
+
+    private static List<long[]> split(FileChannel channel, long size) throws IOException {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long chunkCount = Math.max(size / MAX_CHUNK_SIZE + 1, Math.min(size / MIN_CHUNK_SIZE, parallelism * 4L));
+        long targetSize = Math.max(1, size / Math.max(1, chunkCount));
+
+        List<long[]> chunks = new ArrayList<>();
+        long start = 0;
+
+        while (start < size) {
+            long end = start + targetSize >= size ? size : nextLineStart(channel, start + targetSize, size);
+            chunks.add(new long[] {start, end});
+            start = end;
+        }
+
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+
+            if (read <= 0) {
+                break;
+            }
+
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+
+        return size;
+    }
+
+    private static <T> Chunk<T> parseChunk(ChunkInput input, long size, Function<String, T> parser,
+                                           Charset charset) throws IOException {
+        Chunk<T> chunk = new Chunk<>();
+        byte[] window = new byte[(int) Math.min(WINDOW_SIZE, Math.max(1, size))];
+        int pending = 0;
+
+        while (true) {
+            if (pending == window.length) {
+                window = Arrays.copyOf(window, window.length * 2);
+            }
+
+            int read = input.read(window, pending, window.length - pending);
+            int filled = pending + Math.max(0, read);
+            int lineStart = 0;
+
+            for (int i = 0; i < filled; i++) {
+                if (window[i] == '\n') {
+                    parseLine(window, lineStart, i, parser, charset, chunk);
+                    lineStart = i + 1;
+                }
+            }
+
+            if (read < 0) {
+                if (lineStart < filled) {
+                    parseLine(window, lineStart, filled, parser, charset, chunk);
+                }
+                break;
+            }
+
+            pending = filled - lineStart;
+            System.arraycopy(window, lineStart, window, 0, pending);
+        }
+
+        return chunk;
+    }
+
+    private static <T> void parseLine(byte[] bytes, int start, int end, Function<String, T> parser,
+                                      Charset charset, Chunk<T> chunk) {
+        int contentEnd = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+        parseLine(new String(bytes, start, contentEnd - start, charset), parser, chunk);
+    }
+
+    private static <T> void parseLine(String line, Function<String, T> parser, Chunk<T> chunk) {
+        chunk.lineCount++;
+
+        if (line.trim().isEmpty()) {
+            return;
+        }
+
+        T record = parser.apply(line);
+
+        if (record != null) {
+            chunk.records.add(record);
+        } else {
+            chunk.invalidLines.add(chunk.lineCount);
+            chunk.invalidText.add(line);
+        }
+    }
+
+    private static <T> List<T> merge(List<Chunk<T>> chunks, String recordName) {
+        int total = 0;
+
+        for (Chunk<T> chunk : chunks) {
+            total += chunk.records.size();
+        }
+
+        List<T> records = new ArrayList<>(total);
+        int lineOffset = 0;
+        int invalid = 0;
+
+        for (Chunk<T> chunk : chunks) {
+            records.addAll(chunk.records);
+
+            for (int i = 0; i < chunk.invalidLines.size(); i++, invalid++) {
+                if (invalid < MAX_WARNINGS) {
+                    System.out.println("Warning: Invalid " + recordName + " data at line "
+                            + (lineOffset + chunk.invalidLines.get(i)) + ": " + chunk.invalidText.get(i));
+                }
+            }
+            lineOffset += chunk.lineCount;
+        }
+
+        if (invalid > MAX_WARNINGS) {
+            System.out.println("Warning: " + (invalid - MAX_WARNINGS) + " more invalid " + recordName
+                    + " lines were skipped.");
+        }
+
+        return records;
+    }
+
+    /**
+     * The bytes of one chunk, handed out a window at a time.
+     */
+    private interface ChunkInput {
+        /**
+         * Reads up to length bytes into the window, returning how many or -1 at the end of the chunk.
+         */
+        int read(byte[] window, int offset, int length) throws IOException;
+    }
+
+    private static class Chunk<T> {
+        private final List<T> records = new ArrayList<>();
+        private final List<Integer> invalidLines = new ArrayList<>();
+        private final List<String> invalidText = new ArrayList<>();
+        private int lineCount;
+        private CompressedDataFile.Block damagedBlock;
+    }
+}
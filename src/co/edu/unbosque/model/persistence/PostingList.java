@@ -0,0 +1,65 @@
+package co.edu.unbosque.model.persistence;
+
+import java.util.Arrays;
+
+/**
+ * Sorted document numbers, shared by the search indexes.
+ */
+class PostingList {
+    int[] ids = new int[2];
+    int size;
+
+    void append(int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = id;
+    }
+
+    void insert(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+
+        if (position >= 0) {
+            return;
+        }
+
+        position = -position - 1;
+
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        ids[position] = id;
+        size++;
+    }
+
+    void remove(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+
+        if (position >= 0) {
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Keeps the candidates that are also in this list and returns how many remain. The search
+     * only moves forward, since both are sorted.
+     */
+    int retainIn(int[] candidates, int count) {
+        int kept = 0;
+        int from = 0;
+
+        for (int i = 0; i < count && from < size; i++) {
+            int position = Arrays.binarySearch(ids, from, size, candidates[i]);
+
+            if (position >= 0) {
+                candidates[kept++] = candidates[i];
+                from = position + 1;
+            } else {
+                from = -position - 1;
+            }
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,24 @@
+package co.edu.unbosque.model.persistence;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * In-memory index kept next to one of the DAO lists so a search does not scan the whole list.
+ * Implementations are not thread-safe; callers guard them with the lock of the list.
+ */
+public interface SearchIndex<T> {
+
+    void rebuild(Collection<T> all);
+
+    void add(T entity);
+
+    /**
+     * Re-indexes an entity whose text may have changed.
+     */
+    void update(T entity);
+
+    void remove(String id);
+
+    List<T> search(String query);
+}
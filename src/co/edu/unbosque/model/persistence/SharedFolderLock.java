@@ -0,0 +1,84 @@
+package co.edu.unbosque.model.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on library.lock in the data folder, shared by every instance that writes to it.
+ * The OS file lock is taken on the first hold and released on the last, so the lock is reentrant
+ * within a thread and threads of the same instance queue on a local lock (a JVM may only hold
+ * one lock per file region). If the file cannot be locked, lock() releases the local lock and
+ * throws, so the write fails instead of running without the other instances being held off.
+ */
+public class SharedFolderLock {
+
+    private final File file;
+    private final ReentrantLock localLock = new ReentrantLock(true);
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    public SharedFolderLock(String dataDirectory) {
+        this.file = new File(dataDirectory + "library.lock");
+    }
+
+    public void lock() {
+        localLock.lock();
+
+        if (localLock.getHoldCount() > 1) {
+            return;
+        }
+
+        boolean locked = false;
+
+        try {
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            fileLock = channel.lock();
+            locked = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not lock " + file.getPath(), e);
+        } catch (OverlappingFileLockException e) {
+            throw new UncheckedIOException(new IOException(
+                    file.getPath() + " is already locked by another library in this process", e));
+        } finally {
+            if (!locked) {
+                localLock.unlock();
+            }
+        }
+    }
+
+    public void unlock() {
+        try {
+            if (localLock.getHoldCount() == 1 && fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } catch (IOException e) {
+            System.out.println("Error releasing " + file.getPath() + ": " + e.getMessage());
+        } finally {
+            localLock.unlock();
+        }
+    }
+
+    public void close() {
+        localLock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error closing " + file.getPath() + ": " + e.getMessage());
+        } finally {
+            channel = null;
+            fileLock = null;
+            localLock.unlock();
+        }
+    }
+}
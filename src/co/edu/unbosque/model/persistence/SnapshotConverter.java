@@ -0,0 +1,37 @@
+package co.edu.unbosque.model.persistence;
+
+import java.io.File;
+
+/**
+ * One-shot conversion of users.txt, books.txt and loans.txt into their binary snapshots.
+ * Once a .bin file exists it is kept up to date on every full save and preferred on load
+ * whenever it is at least as recent as the matching .txt file.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=co.edu.unbosque.model.persistence.SnapshotConverter
+ */
+public class SnapshotConverter {
+
+    public static void main(String[] args) {
+        String dataDirectory = args.length > 0 ? args[0] : StorageDetector.detectStorageLocation();
+
+        if (!dataDirectory.endsWith(File.separator)) {
+            dataDirectory += File.separator;
+        }
+        convert(dataDirectory);
+    }
+
+    public static boolean convert(String dataDirectory) {
+        System.out.println("Converting data files in " + dataDirectory + " to binary snapshots...");
+
+        UserFileManager userFileManager = new UserFileManager(dataDirectory);
+        BookFileManager bookFileManager = new BookFileManager(dataDirectory);
+        LoanFileManager loanFileManager = new LoanFileManager(dataDirectory);
+
+        boolean converted = userFileManager.saveSnapshot(userFileManager.load())
+                & bookFileManager.saveSnapshot(bookFileManager.load())
+                & loanFileManager.saveSnapshot(loanFileManager.load());
+
+        System.out.println(converted ? "Snapshots written." : "Some snapshots could not be written.");
+        return converted;
+    }
+}
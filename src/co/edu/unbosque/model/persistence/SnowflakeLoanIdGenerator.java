@@ -0,0 +1,128 @@
+package co.edu.unbosque.model.persistence;
+
+import co.edu.unbosque.model.Loan;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snowflake-style loan IDs: "L" + epoch millis (13 digits) + node ID (3 digits) + sequence (4 digits).
+ * The fields are fixed-width decimal, so IDs sort by creation time as plain strings and still
+ * sort after the older "L" + millis IDs of the same millisecond. Time and sequence live in one
+ * AtomicLong advanced by compare-and-set: IDs are unique per node, never go backwards when the
+ * clock does, and a sequence overflow simply borrows the next millisecond.
+ * <p>
+ * Without LIBRARY_NODE_ID the node ID is derived from the host name and process ID, so instances
+ * sharing a data folder get different ones unless the hash happens to collide; set it explicitly
+ * (0-999, different per desk) to rule that out.
+ */
+public class SnowflakeLoanIdGenerator implements LoanIdGenerator {
+
+    private static final String PREFIX = "L";
+    private static final int MAX_NODE_ID = 999;
+    private static final long SEQUENCE_RANGE = 10_000L;
+    private static final int MILLIS_DIGITS = 13;
+    private static final int NODE_DIGITS = 3;
+    private static final int SEQUENCE_DIGITS = 4;
+    private static final int ID_DIGITS = MILLIS_DIGITS + NODE_DIGITS + SEQUENCE_DIGITS;
+
+    private final int nodeId;
+    private final AtomicLong lastStamp = new AtomicLong();
+
+    public SnowflakeLoanIdGenerator() {
+        this(LibrarySettings.getInt("LIBRARY_NODE_ID", defaultNodeId()));
+    }
+
+    public SnowflakeLoanIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            int fallback = defaultNodeId();
+            System.out.println("Warning: LIBRARY_NODE_ID must be between 0 and " + MAX_NODE_ID + ", using " + fallback + ".");
+            nodeId = fallback;
+        }
+        this.nodeId = nodeId;
+    }
+
+    private static int defaultNodeId() {
+        String host = LibrarySettings.getString("COMPUTERNAME", LibrarySettings.getString("HOSTNAME", null));
+
+        if (host == null) {
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (IOException e) {
+                host = "";
+            }
+        }
+        return Math.floorMod((host + "/" + ProcessHandle.current().pid()).hashCode(), MAX_NODE_ID + 1);
+    }
+
+    @Override
+    public String nextId() {
+        long stamp;
+        long previous;
+
+        do {
+            previous = lastStamp.get();
+            stamp = Math.max(previous + 1, System.currentTimeMillis() * SEQUENCE_RANGE);
+        } while (!lastStamp.compareAndSet(previous, stamp));
+
+        return format(stamp);
+    }
+
+    @Override
+    public void seed(List<Loan> existingLoans) {
+        long highest = 0;
+
+        for (Loan loan : existingLoans) {
+            highest = Math.max(highest, stampOf(loan.getId()));
+        }
+
+        lastStamp.accumulateAndGet(highest, Math::max);
+    }
+
+    private String format(long stamp) {
+        StringBuilder id = new StringBuilder(PREFIX.length() + ID_DIGITS);
+        id.append(PREFIX);
+        appendPadded(id, stamp / SEQUENCE_RANGE, MILLIS_DIGITS);
+        appendPadded(id, nodeId, NODE_DIGITS);
+        appendPadded(id, stamp % SEQUENCE_RANGE, SEQUENCE_DIGITS);
+        return id.toString();
+    }
+
+    private static void appendPadded(StringBuilder id, long value, int width) {
+        String digits = Long.toString(value);
+
+        for (int i = digits.length(); i < width; i++) {
+            id.append('0');
+        }
+        id.append(digits);
+    }
+
+    /**
+     * Time and sequence encoded in an existing ID, or 0 when it follows neither this
+     * layout nor the older "L" + millis one.
+     */
+    private static long stampOf(String id) {
+        if (id == null || !id.startsWith(PREFIX)) {
+            return 0;
+        }
+
+        String digits = id.substring(PREFIX.length());
+
+        if (digits.isEmpty() || digits.length() > ID_DIGITS || !digits.chars().allMatch(Character::isDigit)) {
+            return 0;
+        }
+
+        if (digits.length() == ID_DIGITS) {
+            long millis = Long.parseLong(digits.substring(0, MILLIS_DIGITS));
+            long sequence = Long.parseLong(digits.substring(MILLIS_DIGITS + NODE_DIGITS));
+            return millis * SEQUENCE_RANGE + sequence;
+        }
+
+        if (digits.length() <= MILLIS_DIGITS) {
+            return Long.parseLong(digits) * SEQUENCE_RANGE;
+        }
+        return 0;
+    }
+}
@@ -1,8 +1,22 @@
 package co.edu.unbosque.model.persistence;
 
-import java.io.File;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
 
+/**
+ * Finds the data folder. The location found by a full probe is remembered, together with its
+ * storage type, in ~/.libraryapp/storage.properties (LIBRARY_STORAGE_CACHE overrides the path);
+ * later starts only check that the folder still exists. LIBRARY_STORAGE_REDETECT=true forces a
+ * full probe, e.g. after moving the data to a cloud folder.
+ */
 public class StorageDetector {
+
+    private static final String DIRECTORY_KEY = "dataDirectory";
+    private static final String TYPE_KEY = "storageType";
+
+    private static volatile String cachedDirectory;
+    private static volatile String cachedType;
     
     public static String detectStorageLocation() {
         String envPath = System.getenv("LIBRARY_DATA_PATH");
@@ -10,7 +24,19 @@ public class StorageDetector {
         if (envPath != null && !envPath.isEmpty()) {
             return ensureTrailingSeparator(envPath);
         }
-        
+
+        File cacheFile = getCacheFile();
+
+        if (!LibrarySettings.getBoolean("LIBRARY_STORAGE_REDETECT", false) && loadCachedLocation(cacheFile)) {
+            return cachedDirectory;
+        }
+
+        String dataDirectory = probeStorageLocation();
+        saveCachedLocation(cacheFile, dataDirectory);
+        return dataDirectory;
+    }
+
+    private static String probeStorageLocation() {
         String googleDrivePath = detectGoogleDrive();
 
         if (googleDrivePath != null) {
@@ -192,7 +218,67 @@ public class StorageDetector {
         return path.endsWith(separator) ? path : path + separator;
     }
     
+    private static File getCacheFile() {
+        String path = LibrarySettings.getString("LIBRARY_STORAGE_CACHE", null);
+
+        if (path != null) {
+            return new File(path);
+        }
+        return new File(System.getProperty("user.home"), ".libraryapp" + File.separator + "storage.properties");
+    }
+
+    /**
+     * A single exists() on the remembered folder; false when there is no usable cache entry.
+     */
+    private static boolean loadCachedLocation(File cacheFile) {
+        Properties properties = new Properties();
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            return false;
+        }
+
+        String directory = properties.getProperty(DIRECTORY_KEY);
+        String type = properties.getProperty(TYPE_KEY);
+
+        if (directory == null || directory.isEmpty() || type == null || !new File(directory).exists()) {
+            return false;
+        }
+
+        cachedType = type;
+        cachedDirectory = directory;
+        return true;
+    }
+
+    private static void saveCachedLocation(File cacheFile, String dataDirectory) {
+        String type = getStorageType(dataDirectory);
+        Properties properties = new Properties();
+        properties.setProperty(DIRECTORY_KEY, dataDirectory);
+        properties.setProperty(TYPE_KEY, type);
+
+        cachedType = type;
+        cachedDirectory = dataDirectory;
+
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            System.out.println("Warning: Could not create " + parent.getPath() + ", storage location will be detected again next time.");
+            return;
+        }
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(cacheFile), StandardCharsets.UTF_8)) {
+            properties.store(writer, "LibraryApp storage location");
+        } catch (IOException e) {
+            System.out.println("Warning: Could not save storage location to " + cacheFile.getPath() + ": " + e.getMessage());
+        }
+    }
+
     public static String getStorageType(String dataDirectory) {
+        if (dataDirectory.equals(cachedDirectory)) {
+            return cachedType;
+        }
+
         String absolutePath = new File(dataDirectory).getAbsolutePath().toLowerCase();
         
         if (absolutePath.contains("googledrive") || 
@@ -0,0 +1,261 @@
+package co.edu.unbosque.model.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Inverted index from every three-character sequence of a lowercased text to the entities whose
+ * text contains it, for substring search. A query looks up the posting lists of its own trigrams,
+ * intersects them starting with the shortest and checks each remaining candidate with contains,
+ * so the results are exactly those of {@code text.toLowerCase().contains(query.toLowerCase())}.
+ * Queries shorter than three characters scan the stored lowercase texts instead.
+ * <p>
+ * Each entity gets an increasing document number when added and keeps it when updated, and
+ * results are returned in that order, which is the order entities were added to the list being
+ * indexed. Not thread-safe: callers guard it like the list it indexes.
+ */
+public class TrigramIndex<T> implements SearchIndex<T> {
+
+    private static final int MIN_COMPACT_SIZE = 1024;
+
+    private final Function<T, String> idOf;
+    private final Function<T, String> textOf;
+    private final Map<String, Integer> documents = new HashMap<>();
+    private final List<T> entities = new ArrayList<>();
+    private final List<String> texts = new ArrayList<>();
+    private long[] keys = new long[1024];
+    private PostingList[] postings = new PostingList[1024];
+    private int keyCount;
+    private int removed;
+
+    public TrigramIndex(Function<T, String> idOf, Function<T, String> textOf) {
+        this.idOf = idOf;
+        this.textOf = textOf;
+    }
+
+    @Override
+    public void rebuild(Collection<T> all) {
+        documents.clear();
+        entities.clear();
+        texts.clear();
+        keys = new long[Math.max(1024, Integer.highestOneBit(Math.max(1, all.size())) * 4)];
+        postings = new PostingList[keys.length];
+        keyCount = 0;
+        removed = 0;
+
+        for (T entity : all) {
+            add(entity);
+        }
+    }
+
+    /**
+     * Indexes a new entity. An id that is already indexed keeps its first entity, like the id maps.
+     */
+    @Override
+    public void add(T entity) {
+        String id = idOf.apply(entity);
+
+        if (documents.containsKey(id)) {
+            return;
+        }
+
+        int document = entities.size();
+        String text = normalize(textOf.apply(entity));
+        documents.put(id, document);
+        entities.add(entity);
+        texts.add(text);
+
+        // Document numbers only grow, so a posting list stays sorted by appending, and a trigram
+        // seen twice in the same text is already its last entry.
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            PostingList list = postingsFor(trigram(text, i), true);
+
+            if (list.size == 0 || list.ids[list.size - 1] != document) {
+                list.append(document);
+            }
+        }
+    }
+
+    /**
+     * Re-indexes an entity whose text may have changed, keeping its place in the results.
+     */
+    @Override
+    public void update(T entity) {
+        Integer document = documents.get(idOf.apply(entity));
+
+        if (document == null) {
+            add(entity);
+            return;
+        }
+
+        String oldText = texts.get(document);
+        String newText = normalize(textOf.apply(entity));
+        entities.set(document, entity);
+
+        if (oldText.equals(newText)) {
+            return;
+        }
+
+        Set<Long> oldKeys = trigrams(oldText);
+        Set<Long> newKeys = trigrams(newText);
+
+        for (long key : oldKeys) {
+            if (!newKeys.contains(key)) {
+                postingsFor(key, false).remove(document);
+            }
+        }
+        for (long key : newKeys) {
+            if (!oldKeys.contains(key)) {
+                postingsFor(key, true).insert(document);
+            }
+        }
+        texts.set(document, newText);
+    }
+
+    @Override
+    public void remove(String id) {
+        Integer document = documents.remove(id);
+
+        if (document == null) {
+            return;
+        }
+
+        for (long key : trigrams(texts.get(document))) {
+            postingsFor(key, false).remove(document);
+        }
+        entities.set(document, null);
+        texts.set(document, null);
+        removed++;
+
+        // Renumber once most document numbers belong to removed entities.
+        if (removed > MIN_COMPACT_SIZE && removed > entities.size() / 2) {
+            List<T> live = new ArrayList<>(documents.size());
+
+            for (T entity : entities) {
+                if (entity != null) {
+                    live.add(entity);
+                }
+            }
+            rebuild(live);
+        }
+    }
+
+    @Override
+    public List<T> search(String query) {
+        String normalized = normalize(query);
+        List<T> results = new ArrayList<>();
+
+        if (normalized.length() < 3) {
+            for (int document = 0; document < texts.size(); document++) {
+                String text = texts.get(document);
+
+                if (text != null && text.contains(normalized)) {
+                    results.add(entities.get(document));
+                }
+            }
+            return results;
+        }
+
+        Set<Long> queryKeys = trigrams(normalized);
+        List<PostingList> lists = new ArrayList<>(queryKeys.size());
+
+        for (long key : queryKeys) {
+            PostingList list = postingsFor(key, false);
+
+            if (list == null || list.size == 0) {
+                return results;
+            }
+            lists.add(list);
+        }
+
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+        int[] candidates = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        int count = candidates.length;
+
+        for (int i = 1; i < lists.size() && count > 0; i++) {
+            count = lists.get(i).retainIn(candidates, count);
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (texts.get(candidates[i]).contains(normalized)) {
+                results.add(entities.get(candidates[i]));
+            }
+        }
+        return results;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase();
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    private static Set<Long> trigrams(String text) {
+        Set<Long> result = new HashSet<>();
+
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            result.add(trigram(text, i));
+        }
+        return result;
+    }
+
+    /**
+     * Open-addressing lookup, so building the index for a large catalog boxes no keys.
+     */
+    private PostingList postingsFor(long key, boolean create) {
+        int mask = keys.length - 1;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+
+        while (postings[slot] != null) {
+            if (keys[slot] == key) {
+                return postings[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (!create) {
+            return null;
+        }
+
+        if ((keyCount + 1) * 2 > keys.length) {
+            grow();
+            return postingsFor(key, true);
+        }
+
+        keys[slot] = key;
+        postings[slot] = new PostingList();
+        keyCount++;
+        return postings[slot];
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        PostingList[] oldPostings = postings;
+        keys = new long[oldKeys.length * 2];
+        postings = new PostingList[keys.length];
+        int mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldPostings[i] == null) {
+                continue;
+            }
+
+            int slot = (int) ((oldKeys[i] * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+
+            while (postings[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            postings[slot] = oldPostings[i];
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package co.edu.unbosque.model.persistence;
+
+import co.edu.unbosque.model.Book;
+import co.edu.unbosque.model.Loan;
+import co.edu.unbosque.model.User;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the changes of one logical operation (or of a burst of operations) so they can be
+ * persisted together. Records are serialized when they are added, and a later change to the
+ * same entity replaces the earlier one, so a burst writes each touched record only once.
+ */
+public class UnitOfWork {
+
+    public enum EntitySet {
+        USERS("U"), BOOKS("B"), LOANS("L");
+
+        private final String code;
+
+        EntitySet(String code) {
+            this.code = code;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public static EntitySet fromCode(String code) {
+            for (EntitySet set : values()) {
+                if (set.code.equals(code)) {
+                    return set;
+                }
+            }
+            return null;
+        }
+    }
+
+    static final String PUT = "P";
+    static final String DELETE = "D";
+    private static final String DELIMITER = "|";
+
+    private final Map<String, String> userRecords = new LinkedHashMap<>();
+    private final Map<String, String> bookRecords = new LinkedHashMap<>();
+    private final Map<String, String> loanRecords = new LinkedHashMap<>();
+
+    public void putUser(User user) {
+        userRecords.put(user.getId(), PUT + DELIMITER + UserFileMapper.toFileLine(user));
+    }
+
+    public void removeUser(String id) {
+        userRecords.put(id, DELETE + DELIMITER + id);
+    }
+
+    public void putBook(Book book) {
+        bookRecords.put(book.getId(), PUT + DELIMITER + BookFileMapper.toFileLine(book));
+    }
+
+    public void removeBook(String id) {
+        bookRecords.put(id, DELETE + DELIMITER + id);
+    }
+
+    public void putLoan(Loan loan) {
+        loanRecords.put(loan.getId(), PUT + DELIMITER + LoanFileMapper.toFileLine(loan));
+    }
+
+    /**
+     * Folds a later unit of work into this one; its records win over the ones already collected.
+     */
+    public void merge(UnitOfWork later) {
+        userRecords.putAll(later.userRecords);
+        bookRecords.putAll(later.bookRecords);
+        loanRecords.putAll(later.loanRecords);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int size() {
+        return userRecords.size() + bookRecords.size() + loanRecords.size();
+    }
+
+    public Set<EntitySet> getDirtySets() {
+        Set<EntitySet> dirty = EnumSet.noneOf(EntitySet.class);
+
+        if (!userRecords.isEmpty()) {
+            dirty.add(EntitySet.USERS);
+        }
+        if (!bookRecords.isEmpty()) {
+            dirty.add(EntitySet.BOOKS);
+        }
+        if (!loanRecords.isEmpty()) {
+            dirty.add(EntitySet.LOANS);
+        }
+        return dirty;
+    }
+
+    /**
+     * Journal records in "<set>|P|<file line>" / "<set>|D|<id>" form, users first, then books, then loans.
+     */
+    public List<String> toJournalRecords() {
+        List<String> records = new ArrayList<>(size());
+        addRecords(records, EntitySet.USERS, userRecords);
+        addRecords(records, EntitySet.BOOKS, bookRecords);
+        addRecords(records, EntitySet.LOANS, loanRecords);
+        return records;
+    }
+
+    private void addRecords(List<String> records, EntitySet set, Map<String, String> changes) {
+        for (String change : changes.values()) {
+            records.add(set.getCode() + DELIMITER + change);
+        }
+    }
+}
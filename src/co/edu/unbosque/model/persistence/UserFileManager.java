@@ -1,49 +1,47 @@
 package co.edu.unbosque.model.persistence;
 
 import co.edu.unbosque.model.User;
+import co.edu.unbosque.utils.DateFormatter;
 
 import java.io.*;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 
 public class UserFileManager {
     
     private final String filePath;
+    private final File snapshotFile;
     private static final String DELIMITER = "|";
     
     public UserFileManager(String dataDirectory) {
         this.filePath = dataDirectory + "users.txt";
+        this.snapshotFile = new File(dataDirectory + "users.bin");
     }
     
     public List<User> load() {
         List<User> users = new ArrayList<>();
         File file = new File(filePath);
         
-        if (!file.exists()) {
+        if (!file.exists() && !snapshotFile.exists()) {
             System.out.println("Users file not found. Starting with empty user list.");
             return users;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            int lineNumber = 0;
-            
-            while ((line = br.readLine()) != null) {
-                lineNumber++;
-                
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                
-                User user = UserFileMapper.fromFileLine(line);
-
-                if (user != null) {
-                    users.add(user);
-                } else {
-                    System.out.println("Warning: Invalid user data at line " + lineNumber + ": " + line);
-                }
+        if (BinarySnapshot.isCurrent(snapshotFile, file)) {
+            try {
+                users = BinarySnapshot.readUsers(snapshotFile);
+                System.out.println("Loaded " + users.size() + " users from binary snapshot.");
+                return users;
+            } catch (IOException e) {
+                System.out.println("Error reading users snapshot, falling back to text file: " + e.getMessage());
             }
-            
+        }
+
+        try {
+            users = ParallelLineLoader.load(file, UserFileMapper::fromFileLine, User::getId, "user");
             System.out.println("Loaded " + users.size() + " users from file.");
             
         } catch (IOException e) {
@@ -54,16 +52,52 @@ public class UserFileManager {
     }
 
     public boolean save(List<User> users) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            for (User user : users) {
-                bw.write(UserFileMapper.toFileLine(user));
-                bw.newLine();
-            }
-            return true;
+        // One instant per save, so every text birth date in the file carries the same timestamp.
+        DateFormatter formatter = DateFormatter.systemDefault()
+                .withClock(Clock.fixed(Instant.now(), ZoneId.systemDefault()));
+
+        CompressedDataFile.keepPrevious(new File(filePath));
+
+        try {
+            AtomicFile.write(new File(filePath), file -> {
+                // Lines are built in one reused buffer and copied to the writer in a single call;
+                // appending field by field to the BufferedWriter would take its lock on every piece.
+                StringBuilder line = new StringBuilder(256);
+                char[] chars = new char[256];
+
+                try (BufferedWriter bw = CompressedDataFile.openWriter(file)) {
+                    for (User user : users) {
+                        line.setLength(0);
+
+                        if (user != null) {
+                            UserFileMapper.appendFileLine(line, user, formatter);
+                        }
+
+                        if (chars.length < line.length()) {
+                            chars = new char[line.length() * 2];
+                        }
+                        line.getChars(0, line.length(), chars, 0);
+                        bw.write(chars, 0, line.length());
+                        bw.newLine();
+                    }
+                }
+            });
         } catch (IOException e) {
             System.out.println("Error saving users: " + e.getMessage());
             return false;
         }
+        
+        return !snapshotFile.exists() || saveSnapshot(users);
+    }
+
+    public boolean saveSnapshot(List<User> users) {
+        try {
+            BinarySnapshot.writeUsers(snapshotFile, new File(filePath), users);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error saving users snapshot: " + e.getMessage());
+            return false;
+        }
     }
     
     public boolean exists() {
@@ -3,40 +3,46 @@ package co.edu.unbosque.model.persistence;
 import co.edu.unbosque.model.User;
 import co.edu.unbosque.utils.DateFormatter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 
+/**
+ * users.txt line format. Birth dates are written as ISO yyyy-MM-dd (format version 2) unless
+ * LIBRARY_BIRTH_DATE_FORMAT=text keeps the version 1 Spanish text, for teams still sharing the
+ * folder with older builds. Both versions are read, line by line.
+ */
 public class UserFileMapper {
     
-    private static final String DELIMITER = "|";
+    private static final char DELIMITER = '|';
+    private static final boolean TEXT_BIRTH_DATES =
+            "text".equalsIgnoreCase(LibrarySettings.getString("LIBRARY_BIRTH_DATE_FORMAT", "iso"));
 
     public static User fromFileLine(String line) {
-        if (line == null || line.trim().isEmpty()) {
+        FieldTokenizer fields = new FieldTokenizer(line);
+        
+        if (fields.isBlank()) {
             return null;
         }
         
-        String[] fields = line.split("\\" + DELIMITER);
-        
-        if (fields.length != 8) {
+        if (fields.countFields() != 8) {
             return null;
         }
         
         try {
             User user = new User();
             
-            user.setId(fields[0]);
-            user.setName(fields[1]);
-            user.setEmail(fields[2]);
-            user.setPhone(fields[3]);
-            user.setAddress(fields[4]);
+            user.setId(fields.nextString());
+            user.setName(fields.nextString());
+            user.setEmail(fields.nextString());
+            user.setPhone(fields.nextString());
+            user.setAddress(fields.nextString());
             
-            LocalDate birthDate = fields[5].isEmpty() ? null : 
-                                DateFormatter.parseTextDateToLocalDate(fields[5]);
-            user.setBirthDate(birthDate);
+            user.setBirthDate(nextBirthDate(fields));
             
-            LocalDate registrationDate = fields[6].isEmpty() ? null : LocalDate.parse(fields[6]);
-            user.setRegistrationDate(registrationDate);
+            user.setRegistrationDate(fields.nextDate());
             
-            user.setActive(Boolean.parseBoolean(fields[7]));
+            user.setActive(fields.nextBoolean());
             
             return user;
             
@@ -46,24 +52,78 @@ public class UserFileMapper {
         }
     }
 
+    private static LocalDate nextBirthDate(FieldTokenizer fields) {
+        if (fields.nextLooksLikeIsoDate()) {
+            return fields.nextDate();
+        }
+
+        String birthDateText = fields.nextString();
+        return birthDateText.isEmpty() ? null : DateFormatter.parseTextDateToLocalDate(birthDateText);
+    }
+
+    /**
+     * True when the line's birth date is still stored in the version 1 text form.
+     */
+    public static boolean hasTextBirthDate(String line) {
+        FieldTokenizer fields = new FieldTokenizer(line);
+
+        if (fields.isBlank() || fields.countFields() != 8) {
+            return false;
+        }
+
+        for (int i = 0; i < 5; i++) {
+            fields.skip();
+        }
+        return !fields.nextIsEmpty() && !fields.nextLooksLikeIsoDate();
+    }
+
     public static String toFileLine(User user) {
+        return toFileLine(user, TEXT_BIRTH_DATES);
+    }
+
+    public static String toFileLine(User user, boolean textBirthDate) {
         if (user == null) {
             return "";
         }
 
-        String birthDateStr = user.getBirthDate() != null ? 
-                             DateFormatter.convertDateForFileStorage(user.getBirthDate()) : "";
+        StringBuilder sb = new StringBuilder(128);
 
-        String registrationDateStr = user.getRegistrationDate() != null ? 
-                                    user.getRegistrationDate().toString() : "";
-        
-        return user.getId() + DELIMITER + 
-               user.getName() + DELIMITER + 
-               user.getEmail() + DELIMITER + 
-               user.getPhone() + DELIMITER + 
-               user.getAddress() + DELIMITER + 
-               birthDateStr + DELIMITER + 
-               registrationDateStr + DELIMITER + 
-               user.isActive();
+        try {
+            appendFileLine(sb, user, textBirthDate, DateFormatter.systemDefault());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    public static void appendFileLine(Appendable out, User user, DateFormatter formatter) throws IOException {
+        appendFileLine(out, user, TEXT_BIRTH_DATES, formatter);
+    }
+
+    /**
+     * Writes the line straight into the target, without building it as a String first.
+     * Text birth dates are stamped with the formatter's clock.
+     */
+    public static void appendFileLine(Appendable out, User user, boolean textBirthDate,
+                                      DateFormatter formatter) throws IOException {
+        out.append(user.getId()).append(DELIMITER)
+           .append(user.getName()).append(DELIMITER)
+           .append(user.getEmail()).append(DELIMITER)
+           .append(user.getPhone()).append(DELIMITER)
+           .append(user.getAddress()).append(DELIMITER);
+
+        if (user.getBirthDate() != null) {
+            if (textBirthDate) {
+                formatter.appendWithTimestamp(out, user.getBirthDate());
+            } else {
+                DateFormatter.appendIsoDate(out, user.getBirthDate());
+            }
+        }
+        out.append(DELIMITER);
+
+        if (user.getRegistrationDate() != null) {
+            DateFormatter.appendIsoDate(out, user.getRegistrationDate());
+        }
+        out.append(DELIMITER).append(user.isActive() ? "true" : "false");
     }
 }
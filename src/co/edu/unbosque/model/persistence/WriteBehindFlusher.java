@@ -0,0 +1,120 @@
+package co.edu.unbosque.model.persistence;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Write-behind persistence: mutations are folded into a pending unit of work and a background
+ * thread hands it to the store every interval, or as soon as it reaches the size threshold.
+ * Only the entity sets touched since the last flush are written. A failed flush keeps its
+ * changes pending for the next attempt, and close() drains whatever is left.
+ */
+public class WriteBehindFlusher {
+
+    private final Predicate<UnitOfWork> store;
+    private final int threshold;
+    private final ScheduledExecutorService executor;
+    private final Object flushLock = new Object();
+    private final Thread shutdownHook;
+    private UnitOfWork pending = new UnitOfWork();
+    private boolean flushRequested;
+    private boolean closed;
+
+    public WriteBehindFlusher(Predicate<UnitOfWork> store, long intervalMillis, int threshold) {
+        this.store = store;
+        this.threshold = Math.max(1, threshold);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        this.shutdownHook = new Thread(this::flush, "library-write-behind-drain");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public void submit(UnitOfWork work) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Write-behind flusher is closed");
+            }
+
+            pending.merge(work);
+
+            if (pending.size() < threshold || flushRequested) {
+                return;
+            }
+            flushRequested = true;
+        }
+        executor.execute(this::flush);
+    }
+
+    public boolean flush() {
+        synchronized (flushLock) {
+            UnitOfWork work;
+
+            synchronized (this) {
+                work = pending;
+                pending = new UnitOfWork();
+                flushRequested = false;
+            }
+
+            if (work.isEmpty()) {
+                return true;
+            }
+
+            boolean stored;
+
+            try {
+                stored = store.test(work);
+            } catch (RuntimeException e) {
+                System.out.println("Error in background save: " + e.getMessage());
+                stored = false;
+            }
+
+            if (!stored) {
+                synchronized (this) {
+                    work.merge(pending);
+                    pending = work;
+                }
+            }
+            return stored;
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public boolean close() {
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            closed = true;
+        }
+
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down: the hook is draining as well.
+        }
+
+        boolean drained = flush();
+
+        if (!drained) {
+            System.out.println("Warning: " + getPendingCount() + " pending changes could not be saved.");
+        }
+        return drained;
+    }
+}
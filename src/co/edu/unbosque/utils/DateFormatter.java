@@ -1,12 +1,23 @@
 package co.edu.unbosque.utils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility for formatting dates into complete Spanish text.
  * Converts ISO format dates (yyyy-MM-dd) to long text with timestamp of the registration moment.
  * Example: "2026-02-10" -> "Diez de Febrero de 2026 siendo las seis y veinte con treinta segundos de la tarde"
+ * The static methods use the system clock; create an instance to supply a clock or to append into
+ * a caller's buffer.
  */
 public class DateFormatter {
     
@@ -40,29 +51,106 @@ public class DateFormatter {
         "cincuenta y siete", "cincuenta y ocho", "cincuenta y nueve"
     };
     
-    public static String formatDateToText(String dateString) {
+    private static final Map<String, Integer> DAY_LOOKUP = buildLookup(DAYS);
+    private static final Map<String, Integer> MONTH_LOOKUP = buildLookup(MONTHS);
+
+    private static Map<String, Integer> buildLookup(String[] names) {
+        Map<String, Integer> lookup = new HashMap<>();
+
+        for (int i = 1; i < names.length; i++) {
+            lookup.put(names[i].toLowerCase(Locale.ROOT), i);
+        }
+        return lookup;
+    }
+
+    private static final int MAX_CACHED_PREFIXES = 100_000;
+    private static final DateFormatter SYSTEM = new DateFormatter(Clock.systemDefaultZone());
+
+    private final Clock clock;
+    private final ConcurrentMap<LocalDate, String> prefixes;
+    private volatile TimeText lastTime;
+
+    private static final class TimeText {
+        private final long epochSecond;
+        private final String text;
+
+        TimeText(long epochSecond, String text) {
+            this.epochSecond = epochSecond;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A formatter that stamps dates with the time of the given clock. Rendered
+     * "day de month de year" prefixes are cached and shared with {@link #withClock} copies.
+     */
+    public DateFormatter(Clock clock) {
+        this(clock, new ConcurrentHashMap<>());
+    }
+
+    private DateFormatter(Clock clock, ConcurrentMap<LocalDate, String> prefixes) {
+        this.clock = clock;
+        this.prefixes = prefixes;
+    }
+
+    public static DateFormatter systemDefault() {
+        return SYSTEM;
+    }
+
+    public DateFormatter withClock(Clock clock) {
+        return new DateFormatter(clock, prefixes);
+    }
+
+    /**
+     * Appends the date as text followed by the current time of this formatter's clock.
+     * Prefixes and the time text of the current second are reused, so repeated calls
+     * only copy cached strings into the target.
+     */
+    public void appendWithTimestamp(Appendable out, LocalDate date) throws IOException {
+        out.append(prefix(date)).append(currentTimeText());
+    }
+
+    public String formatWithTimestamp(LocalDate date) {
+        StringBuilder sb = new StringBuilder(96);
+
         try {
-            return formatDateTimeToText(LocalDate.parse(dateString), LocalDateTime.now());
-        } catch (Exception e) {
-            return "Fecha inválida";
+            appendWithTimestamp(sb, date);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return sb.toString();
     }
-    
-    public static String formatDateToText(LocalDate date) {
-        return formatDateTimeToText(date, LocalDateTime.now());
+
+    private String prefix(LocalDate date) {
+        String prefix = prefixes.get(date);
+
+        if (prefix == null) {
+            prefix = DAYS[date.getDayOfMonth()] + " de " + MONTHS[date.getMonthValue()] + " de " + date.getYear();
+
+            if (prefixes.size() < MAX_CACHED_PREFIXES) {
+                prefixes.putIfAbsent(date, prefix);
+            }
+        }
+        return prefix;
     }
-    
-    public static String formatDateTimeToText(LocalDateTime dateTime) {
-        return formatDateTimeToText(dateTime.toLocalDate(), dateTime);
+
+    private String currentTimeText() {
+        long epochSecond = Math.floorDiv(clock.millis(), 1000L);
+        TimeText cached = lastTime;
+
+        if (cached != null && cached.epochSecond == epochSecond) {
+            return cached.text;
+        }
+
+        LocalDateTime now = LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), clock.getZone());
+        String text = timeText(now);
+        lastTime = new TimeText(epochSecond, text);
+        return text;
     }
-    
-    private static String formatDateTimeToText(LocalDate date, LocalDateTime time) {
+
+    private static String timeText(LocalDateTime time) {
         StringBuilder sb = new StringBuilder();
         
-        sb.append(DAYS[date.getDayOfMonth()]);
-        sb.append(" de ").append(MONTHS[date.getMonthValue()]);
-        sb.append(" de ").append(date.getYear());
-        
         int hour24 = time.getHour();
         int hour12 = hour24 % 12;
         String period = hour24 < 12 ? "de la mañana" : (hour24 < 20 ? "de la tarde" : "de la noche");
@@ -90,29 +178,69 @@ public class DateFormatter {
         if (n < MINUTES.length) return MINUTES[n];
         return String.valueOf(n);
     }
+
+    public static String formatDateToText(String dateString) {
+        try {
+            return SYSTEM.formatWithTimestamp(LocalDate.parse(dateString));
+        } catch (Exception e) {
+            return "Fecha inválida";
+        }
+    }
+    
+    public static String formatDateToText(LocalDate date) {
+        return SYSTEM.formatWithTimestamp(date);
+    }
+    
+    public static String formatDateTimeToText(LocalDateTime dateTime) {
+        return SYSTEM.prefix(dateTime.toLocalDate()) + timeText(dateTime);
+    }
     
     public static String getCurrentDateTimeAsText() {
-        return formatDateTimeToText(LocalDateTime.now());
+        return formatDateTimeToText(LocalDateTime.now(SYSTEM.clock));
     }
     
     public static String convertDateForFileStorage(String dateString) {
         try {
-            LocalDate date = LocalDate.parse(dateString);
-            return convertDateForFileStorage(date);
+            return convertDateForFileStorage(LocalDate.parse(dateString));
         } catch (Exception e) {
             return "Fecha inválida";
         }
     }
     
     public static String convertDateForFileStorage(LocalDate date) {
-        LocalDateTime currentDateTime = LocalDateTime.now();
-        return formatDateTimeToText(date, currentDateTime);
+        return SYSTEM.formatWithTimestamp(date);
     }
     
     public static String convertDateWithCurrentTimestamp(String dateString) {
         return convertDateForFileStorage(dateString);
     }
+
+    /**
+     * Appends the date as yyyy-MM-dd without creating an intermediate String.
+     */
+    public static void appendIsoDate(Appendable out, LocalDate date) throws IOException {
+        int year = date.getYear();
+
+        if (year < 1000 || year > 9999) {
+            out.append(date.toString());
+            return;
+        }
+
+        out.append((char) ('0' + year / 1000)).append((char) ('0' + year / 100 % 10))
+           .append((char) ('0' + year / 10 % 10)).append((char) ('0' + year % 10)).append('-');
+        appendTwoDigits(out, date.getMonthValue());
+        out.append('-');
+        appendTwoDigits(out, date.getDayOfMonth());
+    }
+
+    private static void appendTwoDigits(Appendable out, int value) throws IOException {
+        out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
     
+    /**
+     * Parses the date part of a stored text date ("Quince de Mayo de 1990 siendo las...").
+     * Day and month names are resolved through prebuilt lookups and the year is read in place.
+     */
     public static LocalDate parseTextDateToLocalDate(String textDate) {
         if (textDate == null || textDate.isEmpty()) {
             return null;
@@ -125,18 +253,19 @@ public class DateFormatter {
             int secondDe = textDate.indexOf(" de ", firstDe + 4);
             if (secondDe == -1) return null;
             
-            String dayText = textDate.substring(0, firstDe).trim();
-            String monthText = textDate.substring(firstDe + 4, secondDe).trim();
-            String restOfDate = textDate.substring(secondDe + 4).trim();
+            Integer day = DAY_LOOKUP.get(textDate.substring(0, firstDe).trim().toLowerCase(Locale.ROOT));
+            if (day == null) return null;
             
-            String yearText = restOfDate.split(" ")[0];
-            int year = Integer.parseInt(yearText);
+            Integer month = MONTH_LOOKUP.get(textDate.substring(firstDe + 4, secondDe).trim().toLowerCase(Locale.ROOT));
+            if (month == null) return null;
             
-            int day = parseDayFromText(dayText);
-            if (day == -1) return null;
-            
-            int month = parseMonthFromText(monthText);
-            if (month == -1) return null;
+            int yearStart = secondDe + 4;
+            while (yearStart < textDate.length() && textDate.charAt(yearStart) == ' ') {
+                yearStart++;
+            }
+
+            int yearEnd = textDate.indexOf(' ', yearStart);
+            int year = Integer.parseInt(textDate.substring(yearStart, yearEnd == -1 ? textDate.length() : yearEnd));
             
             return LocalDate.of(year, month, day);
             
@@ -145,22 +274,4 @@ public class DateFormatter {
             return null;
         }
     }
-    
-    private static int parseDayFromText(String dayText) {
-        for (int i = 1; i < DAYS.length; i++) {
-            if (DAYS[i].equalsIgnoreCase(dayText)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-    
-    private static int parseMonthFromText(String monthText) {
-        for (int i = 1; i < MONTHS.length; i++) {
-            if (MONTHS[i].equalsIgnoreCase(monthText)) {
-                return i;
-            }
-        }
-        return -1;
-    }
 }
@@ -1,9 +1,12 @@
 package co.edu.unbosque.view;
 
+import co.edu.unbosque.model.dto.BatchItemResultDTO;
 import co.edu.unbosque.model.dto.BookDTO;
+import co.edu.unbosque.model.dto.ImportResultDTO;
 import co.edu.unbosque.model.dto.LoanDTO;
 import co.edu.unbosque.model.dto.UserDTO;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 //todas las importaciones nesesarias para el metodo de el final, solo descomente pos las partes que tengan comentarios y ya
@@ -42,6 +45,17 @@ public class ViewConsole {
         return number;
     }
 
+    public List<String> readIdList(String message) {
+        List<String> ids = new ArrayList<>();
+
+        for (String id : readString(message).split("[,\\s]+")) {
+            if (!id.isEmpty()) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
     public boolean readBoolean(String message) {
         System.out.print(message + " (yes/no): ");
         String response = scanner.nextLine().toLowerCase();
@@ -222,6 +236,48 @@ public class ViewConsole {
         }
     }
 
+    public void showBatchResults(List<BatchItemResultDTO> results) {
+        int succeeded = 0;
+
+        for (BatchItemResultDTO result : results) {
+            System.out.println((result.isSuccess() ? "  OK     " : "  FAILED ") + result.getItemId()
+                    + " - " + result.getMessage());
+
+            if (result.isSuccess()) {
+                succeeded++;
+            }
+        }
+
+        System.out.println("Processed: " + results.size() + " | Succeeded: " + succeeded
+                + " | Failed: " + (results.size() - succeeded));
+    }
+
+    public void showImportResult(ImportResultDTO result) {
+        if (result.getError() != null) {
+            showError(result.getError());
+            return;
+        }
+
+        System.out.println("\nRows read: " + result.getTotalRows() + " | Imported: " + result.getImportedCount()
+                + " | Rejected: " + result.getRejectedCount());
+
+        List<String> rejected = result.getRejectedRows();
+        int shown = Math.min(rejected.size(), 20);
+
+        for (int i = 0; i < shown; i++) {
+            System.out.println("  - " + rejected.get(i));
+        }
+        if (rejected.size() > shown) {
+            System.out.println("  ... and " + (rejected.size() - shown) + " more rejected rows");
+        }
+
+        if (result.isSaved()) {
+            showSuccess("Import finished.");
+        } else {
+            showError("Imported data could not be saved.");
+        }
+    }
+
     private String truncateText(String text, int maxLength) {
         if (text == null) {
             return "";
@@ -260,6 +316,7 @@ public class ViewConsole {
         // solo añadi esta opcion 5 al menu
         System.out.println("5. View user address information");
         System.out.println("6. filter users by adress");
+        System.out.println("7. Import Users from CSV");
         System.out.println("0. Back to Main Menu");
         System.out.println("=================================");
         return readInt("Select an option: ");
@@ -271,6 +328,7 @@ public class ViewConsole {
         System.out.println("2. Update Book");
         System.out.println("3. Delete Book");
         System.out.println("4. List All Books");
+        System.out.println("5. Import Books from CSV");
         System.out.println("0. Back to Main Menu");
         System.out.println("=================================");
         return readInt("Select an option: ");
@@ -281,6 +339,8 @@ public class ViewConsole {
         System.out.println("1. Create Loan");
         System.out.println("2. Register Return");
         System.out.println("3. List All Loans");
+        System.out.println("4. Batch Checkout");
+        System.out.println("5. Batch Return");
         System.out.println("0. Back to Main Menu");
         System.out.println("=================================");
         return readInt("Select an option: ");